@@ -0,0 +1,83 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.mca.Chunk;
+import net.querz.mca.MCAFile;
+import net.querz.worldpruner.prune.structures.StructureData;
+import net.querz.worldpruner.selection.Point;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// compares loading the chunks of a region file with the nbt library and PrunerSelectionStreamTagVisitor with
+// scanning them with RegionReader, and measures extracting the structures from the chunks loaded by the library
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkLoadBenchmark {
+
+	private File dir;
+	private File file;
+	private RegionReader reader;
+	private List<Chunk> chunks;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("worldpruner-bench").toFile();
+		file = new File(dir, "r.0.0.mca");
+		SyntheticWorld.writeRegion(file, new Point(0, 0), new Random(0));
+		reader = new RegionReader(false);
+		chunks = new ArrayList<>(1024);
+		for (Chunk chunk : Pruner.loadMCAFile(file)) {
+			if (chunk != null) {
+				chunks.add(chunk);
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+		dir.delete();
+	}
+
+	@Benchmark
+	public void visitor(Blackhole blackhole) throws IOException {
+		MCAFile mcaFile = Pruner.loadMCAFile(file);
+		for (Chunk chunk : mcaFile) {
+			if (chunk != null) {
+				blackhole.consume(ChunkSummary.fromChunk(chunk, 0));
+			}
+		}
+	}
+
+	@Benchmark
+	public void scanner(Blackhole blackhole) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = reader.open(file, channel);
+			for (int i = 0; i < 1024; i++) {
+				blackhole.consume(reader.read(header.getInt(i * 4), new Point((short) i), 0));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Benchmark
+	public void structureData(Blackhole blackhole) {
+		for (Chunk chunk : chunks) {
+			blackhole.consume(StructureData.fromChunk(chunk));
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.cli.CLIErrorHandler;
+import net.querz.worldpruner.selection.ChunkSet;
+import net.querz.worldpruner.selection.Point;
+import net.querz.worldpruner.selection.Selection;
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// measures compacting a single region file that keeps a part of its chunks, with a staged copy or in place
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeFragmentBenchmark {
+
+	@Param({"false", "true"})
+	public boolean inPlace;
+
+	// percentage of chunks that are kept
+	@Param({"10", "50", "90"})
+	public int keep;
+
+	private File world;
+	private File original;
+	private File file;
+	private ChunkSet chunks;
+	private Pruner pruner;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		world = Files.createTempDirectory("worldpruner-bench").toFile();
+		File region = new File(world, "region");
+		Files.createDirectories(region.toPath());
+		original = new File(world, "original.mca");
+		SyntheticWorld.writeRegion(original, new Point(0, 0), new Random(0));
+		file = new File(region, "r.0.0.mca");
+
+		Random random = new Random(1);
+		chunks = new ChunkSet();
+		for (int i = 0; i < 1024; i++) {
+			if (random.nextInt(100) < keep) {
+				chunks.set(i);
+			}
+		}
+
+		PruneData.ExecutionOptions execution = PruneData.ExecutionOptions.builder().threads(1).compactThreads(1).ioLimit(1).inPlace(inPlace).build();
+		PruneData pruneData = new PruneData(new PruneData.WorldDirectory(region, null, null), 0, 0, new Selection(), false, false, execution);
+		pruner = new Pruner(pruneData, new CLIErrorHandler(false));
+	}
+
+	@Setup(Level.Invocation)
+	public void restore() throws IOException {
+		Files.copy(original.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@TearDown(Level.Invocation)
+	public void cleanup() throws IOException {
+		// compacted copies are staged but never committed
+		new Staging(world).cleanup();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		new Staging(world).cleanup();
+		new Staging(world).deleteIfEmpty();
+		file.delete();
+		original.delete();
+		file.getParentFile().delete();
+		world.delete();
+	}
+
+	@Benchmark
+	public Pruner.DeFragmentResult deFragment() throws IOException {
+		return pruner.deFragment(file, chunks);
+	}
+}
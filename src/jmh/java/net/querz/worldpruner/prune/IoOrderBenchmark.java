@@ -0,0 +1,118 @@
+package net.querz.worldpruner.prune;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.querz.worldpruner.selection.Point;
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.stream.Stream;
+
+// compares the throughput of reading all region files of a synthetic world in the order of a LongOpenHashSet, which
+// is the order files were processed in before there was a Workload, and in the orders of each IoOrder.
+// files are read with O_DIRECT to bypass the page cache, otherwise every invocation after the first only measures
+// memory bandwidth. file systems that don't support O_DIRECT, like tmpfs, are read through the page cache instead.
+// the difference only shows on hard drives, so the world should be written to one with -p dir=/path/on/hdd.
+// the throughput of each order is printed at the end of a trial.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IoOrderBenchmark {
+
+	@Param({"hash", "size", "disk"})
+	public String order;
+
+	@Param({"256"})
+	public int regions;
+
+	// the directory the world is written to, a temporary directory if empty
+	@Param({""})
+	public String dir;
+
+	private File world;
+	private File regionDir;
+	private LongOpenHashSet files;
+	private OpenOption[] options;
+	private ByteBuffer buffer;
+	private long bytes;
+	private long nanos;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		world = dir.isEmpty() ? Files.createTempDirectory("worldpruner-bench").toFile() : Files.createTempDirectory(new File(dir).toPath(), "worldpruner-bench").toFile();
+		new SyntheticWorld(SyntheticWorld.Settings.parse("regions=" + regions)).write(world);
+		regionDir = new File(world, "region");
+		files = new LongOpenHashSet();
+		for (String name : regionDir.list()) {
+			Matcher m = Pruner.MCA_FILE_PATTERN.matcher(name);
+			if (m.find()) {
+				files.add(new Point(Integer.parseInt(m.group("x")), Integer.parseInt(m.group("z"))).asLong());
+			}
+		}
+
+		int blockSize = (int) Files.getFileStore(regionDir.toPath()).getBlockSize();
+		buffer = ByteBuffer.allocateDirect((1 << 20) + blockSize).alignedSlice(blockSize);
+		options = new OpenOption[]{StandardOpenOption.READ, ExtendedOpenOption.DIRECT};
+		File file = Pruner.toFile(regionDir, new Point(files.iterator().nextLong()));
+		try (FileChannel channel = FileChannel.open(file.toPath(), options)) {
+			channel.read(buffer.clear(), 0);
+		} catch (IOException | UnsupportedOperationException ex) {
+			System.out.println("O_DIRECT is not supported in " + regionDir + ", reading through the page cache");
+			options = new OpenOption[]{StandardOpenOption.READ};
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(world.toPath())) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+		System.out.println();
+		System.out.printf("order %s: %.1f MB/s%n", order, bytes / 1048576.0 / (nanos / 1e9));
+	}
+
+	@Benchmark
+	public long read() throws IOException {
+		long start = System.nanoTime();
+		long read = 0;
+		if (order.equals("hash")) {
+			for (long f : files) {
+				read += readFile(Pruner.toFile(regionDir, new Point(f)));
+			}
+		} else {
+			Workload work = Workload.of(files, regionDir, PruneData.IoOrder.valueOf(order.toUpperCase()));
+			for (int i = 0; i < work.count(); i++) {
+				read += readFile(Pruner.toFile(regionDir, new Point(work.region(i))));
+			}
+		}
+		// the warmup is included, it reads the same files
+		nanos += System.nanoTime() - start;
+		bytes += read;
+		return read;
+	}
+
+	private long readFile(File file) throws IOException {
+		long read = 0;
+		try (FileChannel channel = FileChannel.open(file.toPath(), options)) {
+			int n;
+			while ((n = channel.read(buffer.clear(), read)) > 0) {
+				read += n;
+			}
+		}
+		return read;
+	}
+}
@@ -0,0 +1,185 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.cli.CLIErrorHandler;
+import net.querz.worldpruner.selection.Selection;
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// prunes a synthetic world end to end. each invocation prunes a fresh copy of the same world.
+// besides the total time reported by JMH, the throughput of each phase of the Pruner is printed at the end of a trial,
+// averaged over all invocations including warmup. phases are told apart by the messages the Pruner reports to its
+// Progress.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PruneBenchmark {
+
+	@Param({"16"})
+	public int regions;
+
+	@Param({"0.8"})
+	public double fill;
+
+	@Param({"false", "true"})
+	public boolean legacy;
+
+	@Param({"zlib"})
+	public String compression;
+
+	@Param({"0.5"})
+	public double structures;
+
+	@Param({"false"})
+	public boolean inPlace;
+
+	// chunks with an InhabitedTime of more than this are kept, InhabitedTime has a mean of 6000 ticks
+	@Param({"12000"})
+	public long inhabitedTime;
+
+	@Param({"4"})
+	public int radius;
+
+	private File template;
+	private File work;
+	private SyntheticWorld.World world;
+	private final Map<String, long[]> phases = new LinkedHashMap<>();
+	private int runs;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		SyntheticWorld.Settings settings = SyntheticWorld.Settings.parse(
+				"regions=" + regions,
+				"fill=" + fill,
+				"legacy=" + legacy,
+				"compression=" + compression,
+				"structures=" + structures);
+		template = Files.createTempDirectory("worldpruner-bench").toFile();
+		world = new SyntheticWorld(settings).write(template);
+		work = Files.createTempDirectory("worldpruner-bench").toFile();
+	}
+
+	@Setup(Level.Invocation)
+	public void copy() throws IOException {
+		delete(work.toPath());
+		try (Stream<Path> files = Files.walk(template.toPath())) {
+			for (Path source : (Iterable<Path>) files::iterator) {
+				Path target = work.toPath().resolve(template.toPath().relativize(source));
+				if (Files.isDirectory(source)) {
+					Files.createDirectories(target);
+				} else {
+					Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		delete(work.toPath());
+		delete(template.toPath());
+		Files.delete(work.toPath());
+		Files.delete(template.toPath());
+		report();
+	}
+
+	@Benchmark
+	public void prune() {
+		PruneData.WorldDirectory dir = PruneData.WorldDirectory.parseWorldDirectory(work);
+		PruneData.ExecutionOptions execution = PruneData.ExecutionOptions.builder().inPlace(inPlace).build();
+		PhaseTimer timer = new PhaseTimer();
+		new Pruner(new PruneData(dir, inhabitedTime, radius, new Selection(), false, false, execution), new CLIErrorHandler(false)).prune(timer);
+		runs++;
+	}
+
+	private void report() {
+		System.out.println();
+		System.out.printf("%-34s %10s %12s %12s %10s%n", "phase", "ms", "regions/s", "chunks/s", "MB/s");
+		for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+			double seconds = phase.getValue()[0] / 1e9 / runs;
+			SyntheticWorld.Stats stats = stats(phase.getKey());
+			if (stats == null) {
+				System.out.printf("%-34s %10.1f%n", phase.getKey(), seconds * 1000);
+			} else {
+				System.out.printf("%-34s %10.1f %12.1f %12.1f %10.1f%n", phase.getKey(), seconds * 1000,
+						stats.files() / seconds, stats.chunks() / seconds, stats.bytes() / 1048576.0 / seconds);
+			}
+		}
+	}
+
+	// returns the files of the world that are processed in a phase
+	private SyntheticWorld.Stats stats(String phase) {
+		return switch (phase) {
+			case "Scanning files", "DeFragmenting files in region" -> world.region();
+			case "DeFragmenting files in poi" -> world.poi();
+			case "DeFragmenting files in entities" -> world.entities();
+			default -> null;
+		};
+	}
+
+	// deletes everything inside a directory
+	private static void delete(Path dir) throws IOException {
+		if (!Files.exists(dir)) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				if (!file.equals(dir)) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	// adds the time between two messages to the phase of the first message
+	private class PhaseTimer implements Progress {
+
+		private String phase;
+		private long start;
+
+		private void next(String message) {
+			long now = System.nanoTime();
+			if (phase != null) {
+				phases.computeIfAbsent(phase, k -> new long[1])[0] += now - start;
+			}
+			phase = message;
+			start = now;
+		}
+
+		@Override
+		public void setMessage(String msg) {
+			next(msg);
+		}
+
+		@Override
+		public void done() {
+			next(null);
+		}
+
+		@Override
+		public void setMaximum(int max) {}
+
+		@Override
+		public void setMinimum(int min) {}
+
+		@Override
+		public void increment(int inc) {}
+
+		@Override
+		public void setValue(int value) {}
+
+		@Override
+		public void setIndeterminate(boolean indeterminate) {}
+	}
+}
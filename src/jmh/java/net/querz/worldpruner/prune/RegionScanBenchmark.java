@@ -0,0 +1,71 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.selection.Point;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// compares scanning region files with positional reads and with memory mapped files
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegionScanBenchmark {
+
+	@Param({"false", "true"})
+	public boolean mmap;
+
+	@Param({"8"})
+	public int regions;
+
+	private File dir;
+	private File[] files;
+	private RegionReader reader;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("worldpruner-bench").toFile();
+		files = new File[regions];
+		Random random = new Random(0);
+		for (int r = 0; r < regions; r++) {
+			files[r] = new File(dir, "r." + r + ".0.mca");
+			SyntheticWorld.writeRegion(files[r], new Point(r, 0), random);
+		}
+		reader = new RegionReader(mmap);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (File file : files) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	public void scan(Blackhole blackhole) throws IOException {
+		for (int r = 0; r < regions; r++) {
+			File file = files[r];
+			Point origin = new Point(r, 0).regionToChunk();
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				ByteBuffer header = reader.open(file, channel);
+				for (int i = 0; i < 1024; i++) {
+					int location = header.getInt(i * 4);
+					if (location != 0) {
+						blackhole.consume(reader.read(location, new Point((short) i).add(origin), header.getInt(4096 + i * 4)));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.selection.Point;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// writes synthetic worlds with region, poi and entities files for benchmarks.
+// region chunks contain block data of 24 sections, InhabitedTime and structures, either in the modern layout or in
+// the Level compound that was used before 1.18. structures can start on a grid of 8x8 chunks and are referenced by
+// every 16th chunk around them. poi and entities files contain small chunks for half of the chunks of a region.
+//
+// a world can also be written from the command line:
+// ./gradlew syntheticWorld -PworldArgs="<dir> regions=64 fill=0.8 legacy=true"
+final class SyntheticWorld {
+
+	// region: the number of region files, which are arranged in a square around 0|0
+	// fill: the ratio of chunks that exist in a region file
+	// meanInhabitedTime: InhabitedTime is exponentially distributed with this mean in ticks
+	// structureDensity: the ratio of grid cells of 8x8 chunks that contain a structure start
+	// compression: one of ChunkInput#GZIP, ChunkInput#ZLIB and ChunkInput#UNCOMPRESSED
+	// legacy: whether chunks use the layout from before 1.18
+	record Settings(int regions, double fill, long meanInhabitedTime, double structureDensity, int compression, boolean legacy, long seed) {
+
+		static final Settings DEFAULT = new Settings(1, 1.0, 6000, 1.0, ChunkInput.ZLIB, false, 0);
+
+		// returns settings with the values of key=value arguments
+		static Settings parse(String... args) {
+			Settings s = DEFAULT;
+			for (String arg : args) {
+				String[] kv = arg.split("=", 2);
+				if (kv.length != 2) {
+					throw new IllegalArgumentException("invalid setting " + arg);
+				}
+				s = switch (kv[0]) {
+					case "regions" -> new Settings(Integer.parseInt(kv[1]), s.fill, s.meanInhabitedTime, s.structureDensity, s.compression, s.legacy, s.seed);
+					case "fill" -> new Settings(s.regions, Double.parseDouble(kv[1]), s.meanInhabitedTime, s.structureDensity, s.compression, s.legacy, s.seed);
+					case "inhabitedTime" -> new Settings(s.regions, s.fill, Long.parseLong(kv[1]), s.structureDensity, s.compression, s.legacy, s.seed);
+					case "structures" -> new Settings(s.regions, s.fill, s.meanInhabitedTime, Double.parseDouble(kv[1]), s.compression, s.legacy, s.seed);
+					case "compression" -> new Settings(s.regions, s.fill, s.meanInhabitedTime, s.structureDensity, parseCompression(kv[1]), s.legacy, s.seed);
+					case "legacy" -> new Settings(s.regions, s.fill, s.meanInhabitedTime, s.structureDensity, s.compression, Boolean.parseBoolean(kv[1]), s.seed);
+					case "seed" -> new Settings(s.regions, s.fill, s.meanInhabitedTime, s.structureDensity, s.compression, s.legacy, Long.parseLong(kv[1]));
+					default -> throw new IllegalArgumentException("unknown setting " + kv[0]);
+				};
+			}
+			return s;
+		}
+
+		static int parseCompression(String s) {
+			return switch (s) {
+				case "gzip" -> ChunkInput.GZIP;
+				case "zlib" -> ChunkInput.ZLIB;
+				case "none" -> ChunkInput.UNCOMPRESSED;
+				default -> throw new IllegalArgumentException("unknown compression " + s);
+			};
+		}
+	}
+
+	// the number of files, chunks and bytes written to a directory
+	record Stats(int files, int chunks, long bytes) {
+
+		Stats add(int chunks, long bytes) {
+			return new Stats(files + 1, this.chunks + chunks, this.bytes + bytes);
+		}
+	}
+
+	record World(File dir, Stats region, Stats poi, Stats entities) {}
+
+	private final Settings settings;
+
+	SyntheticWorld(Settings settings) {
+		this.settings = settings;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("usage: SyntheticWorld <dir> [regions=n] [fill=0..1] [inhabitedTime=ticks] [structures=0..1] [compression=gzip|zlib|none] [legacy=true|false] [seed=n]");
+			return;
+		}
+		String[] settings = new String[args.length - 1];
+		System.arraycopy(args, 1, settings, 0, settings.length);
+		World world = new SyntheticWorld(Settings.parse(settings)).write(new File(args[0]));
+		System.out.println(world);
+	}
+
+	World write(File dir) throws IOException {
+		File regionDir = new File(dir, "region");
+		File poiDir = new File(dir, "poi");
+		File entitiesDir = new File(dir, "entities");
+		for (File d : new File[]{regionDir, poiDir, entitiesDir}) {
+			Files.createDirectories(d.toPath());
+		}
+
+		Stats region = new Stats(0, 0, 0), poi = region, entities = region;
+		int side = (int) Math.ceil(Math.sqrt(settings.regions));
+		for (int i = 0; i < settings.regions; i++) {
+			Point r = new Point(i % side - side / 2, i / side - side / 2);
+			String name = String.format("r.%d.%d.mca", r.x(), r.z());
+			// every region gets its own random generator, so regions do not depend on each other
+			Random random = new Random(settings.seed * 31 + r.asLong());
+			boolean[] exists = new boolean[1024];
+			boolean[] extra = new boolean[1024];
+			for (int c = 0; c < 1024; c++) {
+				exists[c] = random.nextDouble() < settings.fill;
+				extra[c] = exists[c] && random.nextBoolean();
+			}
+
+			File file = new File(regionDir, name);
+			region = region.add(writeRegion(file, r, exists, random, this::chunk), file.length());
+			file = new File(poiDir, name);
+			poi = poi.add(writeRegion(file, r, extra, random, (x, z, rnd) -> smallChunk("Sections")), file.length());
+			file = new File(entitiesDir, name);
+			entities = entities.add(writeRegion(file, r, extra, random, (x, z, rnd) -> smallChunk("Entities")), file.length());
+		}
+		return new World(dir, region, poi, entities);
+	}
+
+	// writes a region file with all 1024 chunks with the default settings
+	static void writeRegion(File file, Point region, Random random) throws IOException {
+		SyntheticWorld world = new SyntheticWorld(Settings.DEFAULT);
+		boolean[] exists = new boolean[1024];
+		Arrays.fill(exists, true);
+		world.writeRegion(file, region, exists, random, world::chunk);
+	}
+
+	@FunctionalInterface
+	private interface ChunkWriter {
+		byte[] write(int x, int z, Random random) throws IOException;
+	}
+
+	// returns the number of chunks that were written
+	private int writeRegion(File file, Point region, boolean[] exists, Random random, ChunkWriter writer) throws IOException {
+		Point origin = region.regionToChunk();
+		int count = 0;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(8192);
+			int sector = 2;
+			for (int i = 0; i < 1024; i++) {
+				if (!exists[i]) {
+					continue;
+				}
+				Point chunk = new Point((short) i).add(origin);
+				byte[] compressed = compress(writer.write(chunk.x(), chunk.z(), random));
+				int sectors = (compressed.length + 5 + 4095) / 4096;
+				ByteBuffer data = ByteBuffer.allocate(sectors * 4096);
+				data.putInt(compressed.length + 1).put((byte) settings.compression).put(compressed).clear();
+				channel.write(data, sector * 4096L);
+				header.putInt(i * 4, sector << 8 | sectors);
+				header.putInt(4096 + i * 4, i);
+				sector += sectors;
+				count++;
+			}
+			channel.write(header, 0);
+		}
+		return count;
+	}
+
+	private byte[] compress(byte[] data) throws IOException {
+		if (settings.compression == ChunkInput.UNCOMPRESSED) {
+			return data;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = settings.compression == ChunkInput.GZIP ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes)) {
+			out.write(data);
+		}
+		return bytes.toByteArray();
+	}
+
+	// returns the uncompressed nbt data of a region chunk
+	byte[] chunk(int x, int z, Random random) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		name(out, 10, "");
+		name(out, 3, "DataVersion");
+		out.writeInt(settings.legacy ? 2586 : 3120);
+		if (settings.legacy) {
+			name(out, 10, "Level");
+		}
+		name(out, 3, "xPos");
+		out.writeInt(x);
+		name(out, 3, "zPos");
+		out.writeInt(z);
+		name(out, 9, settings.legacy ? "Sections" : "sections");
+		out.writeByte(10);
+		out.writeInt(settings.legacy ? 16 : 24);
+		for (int s = 0; s < (settings.legacy ? 16 : 24); s++) {
+			if (!settings.legacy) {
+				name(out, 10, "block_states");
+			}
+			name(out, 12, settings.legacy ? "BlockStates" : "data");
+			out.writeInt(256);
+			for (int l = 0; l < 256; l++) {
+				// block data with a small palette compresses about as well as real terrain
+				out.writeLong(random.nextInt(16) * 0x1111111111111111L);
+			}
+			if (!settings.legacy) {
+				out.writeByte(0);
+			}
+			out.writeByte(0);
+		}
+		name(out, 4, "InhabitedTime");
+		out.writeLong((long) (-Math.log(1 - random.nextDouble()) * settings.meanInhabitedTime));
+		name(out, 10, settings.legacy ? "Structures" : "structures");
+		name(out, 10, settings.legacy ? "Starts" : "starts");
+		if ((x & 7) == 0 && (z & 7) == 0 && hasStart(x >> 3, z >> 3)) {
+			start(out, x, z, random);
+		}
+		out.writeByte(0);
+		name(out, 10, "References");
+		if ((x & 3) == 0 && (z & 3) == 0 && hasStart(x >> 3, z >> 3)) {
+			name(out, 12, "minecraft:village");
+			out.writeInt(1);
+			out.writeLong(new Point(x & ~7, z & ~7).asLong());
+		}
+		out.writeByte(0);
+		out.writeByte(0);
+		if (settings.legacy) {
+			out.writeByte(0);
+		}
+		out.writeByte(0);
+		return bytes.toByteArray();
+	}
+
+	// whether the grid cell of 8x8 chunks contains a structure start, independent of the order chunks are written in
+	private boolean hasStart(int gridX, int gridZ) {
+		return new Random(settings.seed ^ gridX * 341873128712L ^ gridZ * 132897987541L).nextDouble() < settings.structureDensity;
+	}
+
+	// a village start with pieces of up to 3 chunks around the start chunk
+	private static void start(DataOutputStream out, int x, int z, Random random) throws IOException {
+		name(out, 10, "minecraft:village");
+		name(out, 8, "id");
+		out.writeUTF("minecraft:village");
+		boundingBox(out, x * 16 - 48, 60, z * 16 - 48, x * 16 + 63, 90, z * 16 + 63);
+		name(out, 9, "Children");
+		int children = 4 + random.nextInt(12);
+		out.writeByte(10);
+		out.writeInt(children);
+		for (int c = 0; c < children; c++) {
+			int minX = x * 16 - 48 + random.nextInt(96);
+			int minZ = z * 16 - 48 + random.nextInt(96);
+			name(out, 8, "id");
+			out.writeUTF("minecraft:jigsaw");
+			boundingBox(out, minX, 60, minZ, minX + random.nextInt(16), 70, minZ + random.nextInt(16));
+			out.writeByte(0);
+		}
+		out.writeByte(0);
+	}
+
+	// a poi or entities chunk with an empty list
+	private static byte[] smallChunk(String list) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		name(out, 10, "");
+		name(out, 3, "DataVersion");
+		out.writeInt(3120);
+		name(out, 9, list);
+		out.writeByte(0);
+		out.writeInt(0);
+		out.writeByte(0);
+		return bytes.toByteArray();
+	}
+
+	private static void boundingBox(DataOutputStream out, int... values) throws IOException {
+		name(out, 11, "BB");
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	private static void name(DataOutputStream out, int type, String name) throws IOException {
+		out.writeByte(type);
+		out.writeUTF(name);
+	}
+}
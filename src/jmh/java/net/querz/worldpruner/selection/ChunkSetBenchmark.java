@@ -0,0 +1,115 @@
+package net.querz.worldpruner.selection;
+
+import it.unimi.dsi.fastutil.shorts.ShortIterator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkSetBenchmark {
+
+	// percentage of chunks in the sets
+	@Param({"5", "50"})
+	public int density;
+
+	private ChunkSet a;
+	private ChunkSet b;
+	private ChunkSet target;
+	private short[] indices;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(0);
+		a = new ChunkSet();
+		b = new ChunkSet();
+		for (int i = 0; i < 1024; i++) {
+			if (random.nextInt(100) < density) {
+				a.set(i);
+			}
+			if (random.nextInt(100) < density) {
+				b.set(i);
+			}
+		}
+		target = new ChunkSet();
+		indices = new short[1024];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = (short) random.nextInt(1024);
+		}
+	}
+
+	@Benchmark
+	public ChunkSet set() {
+		target.clear();
+		for (short index : indices) {
+			target.set(index);
+		}
+		return target;
+	}
+
+	@Benchmark
+	public int get() {
+		int count = 0;
+		for (short index : indices) {
+			if (a.get(index)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public ChunkSet or() {
+		ChunkSet result = a.clone();
+		result.or(b);
+		return result;
+	}
+
+	@Benchmark
+	public ChunkSet and() {
+		ChunkSet result = a.clone();
+		result.and(b);
+		return result;
+	}
+
+	@Benchmark
+	public ChunkSet andNot() {
+		ChunkSet result = a.clone();
+		result.andNot(b);
+		return result;
+	}
+
+	@Benchmark
+	public ChunkSet not() {
+		ChunkSet result = a.clone();
+		result.not();
+		return result;
+	}
+
+	@Benchmark
+	public ChunkSet setRect() {
+		target.clear();
+		target.setRect(3, 5, 27, 20);
+		return target;
+	}
+
+	@Benchmark
+	public int iterator() {
+		int sum = 0;
+		ShortIterator it = a.iterator();
+		while (it.hasNext()) {
+			sum += it.nextShort();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public void forEach(Blackhole blackhole) {
+		a.forEach((short i) -> blackhole.consume(i));
+	}
+}
@@ -0,0 +1,38 @@
+package net.querz.worldpruner.selection;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// measures applying the radius around kept chunks, which replaced Pruner#applyRadius.
+// the seeds are spread over 16x16 regions, with clusters of chunks like in a world with a few bases.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DilationBenchmark {
+
+	@Param({"1", "8", "32", "128"})
+	public int radius;
+
+	private Selection seeds;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(0);
+		seeds = new Selection();
+		for (int cluster = 0; cluster < 64; cluster++) {
+			Point center = new Point(random.nextInt(16 * 32), random.nextInt(16 * 32));
+			for (int i = 0; i < 200; i++) {
+				seeds.addChunk(center.add((int) (random.nextGaussian() * 10), (int) (random.nextGaussian() * 10)));
+			}
+		}
+	}
+
+	@Benchmark
+	public Selection dilate() {
+		return Dilation.dilate(seeds, radius);
+	}
+}
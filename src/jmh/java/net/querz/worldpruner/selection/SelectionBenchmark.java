@@ -0,0 +1,114 @@
+package net.querz.worldpruner.selection;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// the selections cover 32x32 regions. a third of the regions is fully selected, the others contain random chunks.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SelectionBenchmark {
+
+	private static final int REGIONS = 32;
+
+	@Param({"false", "true"})
+	public boolean inverted;
+
+	@Param({"false", "true"})
+	public boolean otherInverted;
+
+	private Selection a;
+	private Selection b;
+	private long[] chunks;
+	private Point[] regions;
+	private File csv;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Random random = new Random(0);
+		a = randomSelection(random, inverted);
+		b = randomSelection(random, otherInverted);
+
+		chunks = new long[100_000];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = new Point(random.nextInt(REGIONS * 32), random.nextInt(REGIONS * 32)).asLong();
+		}
+		regions = new Point[REGIONS * REGIONS];
+		for (int i = 0; i < regions.length; i++) {
+			regions[i] = new Point(i % REGIONS, i / REGIONS);
+		}
+
+		csv = Files.createTempFile("worldpruner-bench", ".csv").toFile();
+		try (Writer writer = new FileWriter(csv)) {
+			writer.write(a.toCSV());
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		csv.delete();
+	}
+
+	private static Selection randomSelection(Random random, boolean inverted) {
+		Selection selection = new Selection();
+		for (int x = 0; x < REGIONS; x++) {
+			for (int z = 0; z < REGIONS; z++) {
+				if (random.nextInt(3) == 0) {
+					selection.addRegion(new Point(x, z).asLong());
+				} else {
+					Point origin = new Point(x, z).regionToChunk();
+					for (int i = 0; i < 200; i++) {
+						selection.addChunk(origin.add(random.nextInt(32), random.nextInt(32)));
+					}
+				}
+			}
+		}
+		selection.inverted = inverted;
+		return selection;
+	}
+
+	@Benchmark
+	public Selection addChunk() {
+		Selection selection = new Selection();
+		selection.inverted = inverted;
+		for (long chunk : chunks) {
+			selection.addChunk(chunk);
+		}
+		return selection;
+	}
+
+	// merge modifies the selection, so each invocation merges into a copy. copy measures the cost of the copy alone.
+	@Benchmark
+	public Selection merge() {
+		Selection selection = a.copy();
+		selection.merge(b);
+		return selection;
+	}
+
+	@Benchmark
+	public Selection copy() {
+		return a.copy();
+	}
+
+	@Benchmark
+	public void getSelectedChunks(Blackhole blackhole) {
+		for (Point region : regions) {
+			blackhole.consume(a.getSelectedChunks(region));
+		}
+	}
+
+	@Benchmark
+	public Selection parseCSV() throws IOException {
+		return Selection.parseCSV(csv);
+	}
+}
@@ -3,6 +3,7 @@ package net.querz.worldpruner;
 import net.querz.worldpruner.cli.AdvancedCLIProgress;
 import net.querz.worldpruner.cli.CLIErrorHandler;
 import net.querz.worldpruner.cli.Timer;
+import net.querz.worldpruner.prune.DimensionScheduler;
 import net.querz.worldpruner.prune.PruneData;
 import net.querz.worldpruner.prune.Pruner;
 import net.querz.worldpruner.ui.Window;
@@ -12,6 +13,7 @@ import org.apache.logging.log4j.ThreadContext;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Enumeration;
+import java.util.Map;
 import java.util.jar.Manifest;
 
 public class Main {
@@ -27,17 +29,22 @@ public class Main {
 			ThreadContext.put("dynamicLogLevel", getLogLevel());
 			Window.create();
 		} else {
-			PruneData data = PruneData.parseArgs(args);
-			if (data == null) {
+			Map<String, PruneData> dimensions = PruneData.parseArgs(args);
+			if (dimensions == null) {
 				// Exiting because either the args are wrong or "--help" was entered
 				return;
 			}
 
-			Pruner pruner = new Pruner(data, new CLIErrorHandler(data.continueOnError()));
+			PruneData data = dimensions.values().iterator().next();
+			CLIErrorHandler errorHandler = new CLIErrorHandler(data.continueOnError());
 
 			Timer t = new Timer();
 
-			pruner.prune(new AdvancedCLIProgress());
+			if (dimensions.size() == 1) {
+				new Pruner(data, errorHandler).prune(new AdvancedCLIProgress());
+			} else {
+				new DimensionScheduler(dimensions, errorHandler).prune(new AdvancedCLIProgress());
+			}
 
 			LOGGER.info("Pruning took " + t);
 		}
@@ -0,0 +1,209 @@
+package net.querz.worldpruner.prune;
+
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.querz.worldpruner.selection.Selection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// persists the progress of a run, so a run that was interrupted can be continued with --resume instead of starting over.
+// the checkpoint is started once the scan is complete and stores the selection of chunks to keep. afterwards, every
+// file that has been pruned and committed is appended to a log. when pruning in tiles, no selection is stored and
+// each tile is appended to the log once it has been pruned, because a tile can be pruned again from scratch.
+// a checkpoint is only resumed by a run with the same settings and whitelist, and is deleted once a run completes.
+final class Checkpoint {
+
+	private static final Logger LOGGER = LogManager.getLogger(Checkpoint.class);
+
+	static final String DIRECTORY_NAME = ".worldpruner-checkpoint";
+
+	private static final int MAGIC = 0x57504331; // WPC1
+
+	// the kinds of entries in the log
+	static final int REGION = 0;
+	static final int POI = 1;
+	static final int ENTITIES = 2;
+	static final int TILE = 3;
+
+	// the size of a log entry, the kind followed by the region or tile
+	private static final int ENTRY_SIZE = 9;
+
+	private final File dir;
+	private final File stateFile;
+	private final File logFile;
+	// identifies the settings that change which chunks are kept
+	private final long settings;
+
+	private FileOutputStream logStream;
+	private DataOutputStream log;
+
+	Checkpoint(File worldDir, PruneData pruneData) {
+		this.dir = new File(worldDir, DIRECTORY_NAME);
+		this.stateFile = new File(dir, "state.dat");
+		this.logFile = new File(dir, "completed.log");
+		this.settings = settings(pruneData);
+	}
+
+	private static long settings(PruneData pruneData) {
+		CRC32 crc = new CRC32();
+		try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(OutputStream.nullOutputStream(), crc))) {
+			out.writeLong(pruneData.inhabitedTime());
+			out.writeInt(pruneData.radius());
+			out.writeBoolean(pruneData.whitelistOnly());
+			out.writeInt(pruneData.execution().tileSize());
+			pruneData.whitelist().write(out);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return crc.getValue();
+	}
+
+	// returns null if there is no checkpoint, if it was written by a run with different settings or if it can't be read
+	State load() {
+		if (!stateFile.exists()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+			if (in.readInt() != MAGIC) {
+				LOGGER.warn("Ignoring checkpoint {} with unknown format", stateFile);
+				return null;
+			}
+			if (in.readLong() != settings) {
+				LOGGER.warn("Ignoring checkpoint {} of a run with different settings", stateFile);
+				return null;
+			}
+			Selection selection = in.readBoolean() ? Selection.read(in) : null;
+			State state = new State(selection, new LongOpenHashSet[]{new LongOpenHashSet(), new LongOpenHashSet(), new LongOpenHashSet(), new LongOpenHashSet()});
+			readLog(state);
+			return state;
+		} catch (IOException ex) {
+			LOGGER.warn("Failed to read checkpoint {}", stateFile, ex);
+			return null;
+		}
+	}
+
+	// an incomplete entry at the end of the log is ignored, it was written when the previous run was killed
+	private void readLog(State state) throws IOException {
+		if (!logFile.exists()) {
+			return;
+		}
+		long entries = logFile.length() / ENTRY_SIZE;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+			for (long i = 0; i < entries; i++) {
+				int kind = in.readUnsignedByte();
+				long key = in.readLong();
+				if (kind >= state.completed.length) {
+					throw new IOException("invalid entry kind " + kind + " in " + logFile);
+				}
+				state.completed[kind].add(key);
+			}
+		}
+		// drop the incomplete entry, so new entries are not misaligned
+		if (logFile.length() != entries * ENTRY_SIZE) {
+			try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+				raf.setLength(entries * ENTRY_SIZE);
+			}
+		}
+	}
+
+	// starts a new checkpoint and discards the previous one. selection is null when pruning in tiles.
+	void start(Selection selection) throws IOException {
+		close();
+		Files.createDirectories(dir.toPath());
+		Files.deleteIfExists(logFile.toPath());
+		File tempFile = File.createTempFile(stateFile.getName() + "-", null, dir);
+		try {
+			try (FileOutputStream fos = new FileOutputStream(tempFile);
+				 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+				out.writeInt(MAGIC);
+				out.writeLong(settings);
+				out.writeBoolean(selection != null);
+				if (selection != null) {
+					selection.write(out);
+				}
+				out.flush();
+				fos.getChannel().force(false);
+			}
+			try {
+				Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+		openLog();
+	}
+
+	// continues the log of a checkpoint that was loaded
+	void resume() throws IOException {
+		close();
+		openLog();
+	}
+
+	private void openLog() throws IOException {
+		logStream = new FileOutputStream(logFile, true);
+		log = new DataOutputStream(new BufferedOutputStream(logStream));
+	}
+
+	// appends completed regions or tiles to the log. they are written to disk right away, so they are not lost when the
+	// process is killed.
+	void complete(int kind, LongCollection keys) throws IOException {
+		if (log == null || keys.isEmpty()) {
+			return;
+		}
+		for (long key : keys) {
+			log.writeByte(kind);
+			log.writeLong(key);
+		}
+		log.flush();
+		logStream.getChannel().force(false);
+	}
+
+	void close() {
+		if (log != null) {
+			try {
+				log.close();
+			} catch (IOException ex) {
+				LOGGER.warn("Failed to close checkpoint log {}", logFile, ex);
+			}
+			log = null;
+			logStream = null;
+		}
+	}
+
+	// deletes the checkpoint once a run is complete or when a new run is started without resuming
+	void delete() {
+		close();
+		try {
+			Files.deleteIfExists(logFile.toPath());
+			Files.deleteIfExists(stateFile.toPath());
+			Files.deleteIfExists(dir.toPath());
+		} catch (IOException ex) {
+			LOGGER.warn("Failed to delete checkpoint {}", dir, ex);
+		}
+	}
+
+	// selection is null if the checkpoint was written while pruning in tiles.
+	// completed contains the regions or tiles that have been pruned by the kind of their log entry.
+	record State(Selection selection, LongOpenHashSet[] completed) {
+
+		boolean isCompleted(int kind, long key) {
+			return completed[kind].contains(key);
+		}
+
+		int completedCount() {
+			int count = 0;
+			for (LongOpenHashSet c : completed) {
+				count += c.size();
+			}
+			return count;
+		}
+	}
+}
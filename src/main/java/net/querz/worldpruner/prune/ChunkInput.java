@@ -0,0 +1,220 @@
+package net.querz.worldpruner.prune;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// the input of a ChunkScanner. decompresses chunk data incrementally into a small window, so only the part of a chunk
+// that is actually read is inflated. an instance is reused for all chunks read by the same thread: the inflaters and
+// buffers are only allocated once.
+final class ChunkInput {
+
+	static final int GZIP = 1;
+	static final int ZLIB = 2;
+	static final int UNCOMPRESSED = 3;
+
+	private static final int WINDOW_SIZE = 16384;
+
+	private final Inflater zlibInflater = new Inflater();
+	// gzip data is inflated without the zlib wrapper after skipping the gzip header
+	private final Inflater gzipInflater = new Inflater(true);
+	private final byte[] window = new byte[WINDOW_SIZE];
+	// the last name read by readName
+	private byte[] name = new byte[64];
+	private int nameLength;
+
+	// null if the data is not compressed
+	private Inflater inflater;
+	private byte[] buffer;
+	private int position;
+	private int limit;
+
+	// starts reading the remaining bytes of data, which can also be a direct or mapped buffer. data is not copied and
+	// must not be modified until the chunk has been read. returns false if the compression type is not supported.
+	boolean reset(ByteBuffer data, int compression) throws IOException {
+		switch (compression) {
+			case ZLIB -> {
+				zlibInflater.reset();
+				zlibInflater.setInput(data);
+				inflater = zlibInflater;
+			}
+			case GZIP -> {
+				data.position(data.position() + gzipHeaderLength(data));
+				gzipInflater.reset();
+				gzipInflater.setInput(data);
+				inflater = gzipInflater;
+			}
+			case UNCOMPRESSED -> {
+				inflater = null;
+				if (data.hasArray()) {
+					buffer = data.array();
+					position = data.arrayOffset() + data.position();
+					limit = data.arrayOffset() + data.limit();
+				} else {
+					// uncompressed chunks are rare, so they are just copied
+					buffer = new byte[data.remaining()];
+					data.get(buffer);
+					position = 0;
+					limit = buffer.length;
+				}
+				return true;
+			}
+			default -> {
+				return false;
+			}
+		}
+		buffer = window;
+		position = 0;
+		limit = 0;
+		return true;
+	}
+
+	private static int gzipHeaderLength(ByteBuffer data) throws IOException {
+		int offset = data.position();
+		int end = data.limit();
+		if (end - offset < 10 || (data.get(offset) & 0xFF) != 0x1F || (data.get(offset + 1) & 0xFF) != 0x8B || data.get(offset + 2) != 8) {
+			throw new IOException("invalid gzip header");
+		}
+		int flags = data.get(offset + 3);
+		int p = offset + 10;
+		if ((flags & 4) != 0) { // FEXTRA
+			if (p + 2 > end) {
+				throw new EOFException("truncated gzip header");
+			}
+			p += 2 + ((data.get(p) & 0xFF) | (data.get(p + 1) & 0xFF) << 8);
+		}
+		if ((flags & 8) != 0) { // FNAME
+			p = skipZeroTerminated(data, p, end);
+		}
+		if ((flags & 16) != 0) { // FCOMMENT
+			p = skipZeroTerminated(data, p, end);
+		}
+		if ((flags & 2) != 0) { // FHCRC
+			p += 2;
+		}
+		if (p > end) {
+			throw new EOFException("truncated gzip header");
+		}
+		return p - offset;
+	}
+
+	private static int skipZeroTerminated(ByteBuffer data, int p, int end) {
+		while (p < end && data.get(p) != 0) {
+			p++;
+		}
+		return p + 1;
+	}
+
+	// inflates more data into the window, keeping the bytes that were not read yet
+	private void fill() throws IOException {
+		if (inflater == null || inflater.finished()) {
+			throw new EOFException();
+		}
+		int remaining = limit - position;
+		System.arraycopy(window, position, window, 0, remaining);
+		position = 0;
+		limit = remaining;
+		try {
+			int inflated = inflater.inflate(window, limit, window.length - limit);
+			if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+				throw new EOFException();
+			}
+			limit += inflated;
+		} catch (DataFormatException ex) {
+			throw new IOException("invalid compressed chunk data", ex);
+		}
+	}
+
+	private void require(int n) throws IOException {
+		while (limit - position < n) {
+			fill();
+		}
+	}
+
+	byte readByte() throws IOException {
+		require(1);
+		return buffer[position++];
+	}
+
+	int readUnsignedShort() throws IOException {
+		require(2);
+		int value = (buffer[position] & 0xFF) << 8 | buffer[position + 1] & 0xFF;
+		position += 2;
+		return value;
+	}
+
+	int readInt() throws IOException {
+		require(4);
+		int value = (buffer[position] & 0xFF) << 24
+				| (buffer[position + 1] & 0xFF) << 16
+				| (buffer[position + 2] & 0xFF) << 8
+				| buffer[position + 3] & 0xFF;
+		position += 4;
+		return value;
+	}
+
+	long readLong() throws IOException {
+		return (long) readInt() << 32 | readInt() & 0xFFFFFFFFL;
+	}
+
+	void skip(long n) throws IOException {
+		while (n > 0) {
+			if (position == limit) {
+				fill();
+			}
+			int skipped = (int) Math.min(n, limit - position);
+			position += skipped;
+			n -= skipped;
+		}
+	}
+
+	void skipString() throws IOException {
+		skip(readUnsignedShort());
+	}
+
+	// reads a string into a reusable buffer. it can be compared with nameEquals or converted with nameString.
+	void readName() throws IOException {
+		nameLength = readUnsignedShort();
+		if (name.length < nameLength) {
+			name = new byte[Math.max(nameLength, name.length * 2)];
+		}
+		int read = 0;
+		while (read < nameLength) {
+			if (position == limit) {
+				fill();
+			}
+			int n = Math.min(nameLength - read, limit - position);
+			System.arraycopy(buffer, position, name, read, n);
+			position += n;
+			read += n;
+		}
+	}
+
+	boolean nameEquals(byte[] expected) {
+		return Arrays.equals(name, 0, nameLength, expected, 0, expected.length);
+	}
+
+	String nameString() throws IOException {
+		for (int i = 0; i < nameLength; i++) {
+			if (name[i] < 0) {
+				// NBT strings use modified UTF-8, which only differs from ASCII for non-ASCII characters
+				byte[] utf = new byte[nameLength + 2];
+				utf[0] = (byte) (nameLength >> 8);
+				utf[1] = (byte) nameLength;
+				System.arraycopy(name, 0, utf, 2, nameLength);
+				return new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+			}
+		}
+		return new String(name, 0, nameLength, StandardCharsets.ISO_8859_1);
+	}
+
+	static byte[] toName(String name) {
+		return name.getBytes(StandardCharsets.UTF_8);
+	}
+}
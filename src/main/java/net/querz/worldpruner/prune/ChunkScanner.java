@@ -0,0 +1,242 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.prune.structures.StructureData;
+import net.querz.worldpruner.prune.structures.StructureID;
+import net.querz.worldpruner.selection.Point;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// walks the NBT data of a chunk and only reads the tags selected by PrunerSelectionStreamTagVisitor:
+// InhabitedTime and structures (or Level.InhabitedTime and Level.Structures in chunks before 1.18).
+// everything else is skipped without creating any tags, and the scan stops as soon as both have been found,
+// so the remaining data of the chunk doesn't need to be decompressed at all.
+// a scanner is reset for every chunk, so a single instance can be reused by a thread.
+final class ChunkScanner {
+
+	private static final byte END = 0;
+	private static final byte BYTE = 1;
+	private static final byte SHORT = 2;
+	private static final byte INT = 3;
+	private static final byte LONG = 4;
+	private static final byte FLOAT = 5;
+	private static final byte DOUBLE = 6;
+	private static final byte BYTE_ARRAY = 7;
+	private static final byte STRING = 8;
+	private static final byte LIST = 9;
+	private static final byte COMPOUND = 10;
+	private static final byte INT_ARRAY = 11;
+	private static final byte LONG_ARRAY = 12;
+
+	private static final byte[] INHABITED_TIME = ChunkInput.toName("InhabitedTime");
+	private static final byte[] LEVEL = ChunkInput.toName("Level");
+	private static final byte[] STRUCTURES = ChunkInput.toName("structures");
+	private static final byte[] LEGACY_STRUCTURES = ChunkInput.toName("Structures");
+	private static final byte[] STARTS = ChunkInput.toName("starts");
+	private static final byte[] LEGACY_STARTS = ChunkInput.toName("Starts");
+	private static final byte[] REFERENCES = ChunkInput.toName("References");
+	private static final byte[] BB = ChunkInput.toName("BB");
+	private static final byte[] CHILDREN = ChunkInput.toName("Children");
+
+	private long inhabitedTime;
+	private boolean inhabitedTimeDone;
+	private boolean structuresDone;
+	private List<StructureData> structures;
+	private List<StructureID> references;
+	private long chunk;
+
+	ChunkSummary scan(ChunkInput in, int x, int z, int timestamp) throws IOException {
+		inhabitedTime = ChunkSummary.UNKNOWN_INHABITED_TIME;
+		inhabitedTimeDone = false;
+		structuresDone = false;
+		// most chunks don't contain any structures, so the lists are only created when needed
+		structures = Collections.emptyList();
+		references = Collections.emptyList();
+		chunk = new Point(x, z).asLong();
+
+		if (in.readByte() == COMPOUND) {
+			in.skipString();
+			scanCompound(in, false);
+		}
+		return new ChunkSummary(x, z, timestamp, inhabitedTime, structures, references);
+	}
+
+	private boolean isDone() {
+		return inhabitedTimeDone && structuresDone;
+	}
+
+	// scans the root compound or the Level compound. returns false if the scan is done.
+	private boolean scanCompound(ChunkInput in, boolean level) throws IOException {
+		byte type;
+		while ((type = in.readByte()) != END) {
+			in.readName();
+			if (type == LONG && !inhabitedTimeDone && in.nameEquals(INHABITED_TIME)) {
+				inhabitedTime = in.readLong();
+				inhabitedTimeDone = true;
+			} else if (type == COMPOUND && !structuresDone && in.nameEquals(level ? LEGACY_STRUCTURES : STRUCTURES)) {
+				scanStructures(in, level);
+				structuresDone = true;
+			} else if (type == COMPOUND && !level && in.nameEquals(LEVEL)) {
+				if (!scanCompound(in, true)) {
+					return false;
+				}
+			} else {
+				skip(in, type);
+			}
+			if (isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void scanStructures(ChunkInput in, boolean level) throws IOException {
+		byte type;
+		while ((type = in.readByte()) != END) {
+			in.readName();
+			if (type == COMPOUND && in.nameEquals(level ? LEGACY_STARTS : STARTS)) {
+				scanStarts(in);
+			} else if (type == COMPOUND && in.nameEquals(REFERENCES)) {
+				scanReferences(in);
+			} else {
+				skip(in, type);
+			}
+		}
+	}
+
+	private void scanStarts(ChunkInput in) throws IOException {
+		byte type;
+		while ((type = in.readByte()) != END) {
+			in.readName();
+			if (type != COMPOUND) {
+				skip(in, type);
+				continue;
+			}
+			String id = in.nameString();
+
+			StructureData.BoundingBox bb = null;
+			List<StructureData.BoundingBox> children = null;
+			byte fieldType;
+			while ((fieldType = in.readByte()) != END) {
+				in.readName();
+				if (fieldType == INT_ARRAY && in.nameEquals(BB)) {
+					bb = readBoundingBox(in);
+				} else if (fieldType == LIST && in.nameEquals(CHILDREN)) {
+					children = readChildren(in);
+				} else {
+					skip(in, fieldType);
+				}
+			}
+
+			// structures without children are ignored, like in StructureData#fromChunk
+			if (children == null) {
+				continue;
+			}
+			List<StructureData.BoundingBox> boundingBoxes = new ArrayList<>(children.size() + 1);
+			if (bb != null) {
+				boundingBoxes.add(bb);
+			}
+			boundingBoxes.addAll(children);
+			if (structures.isEmpty()) {
+				structures = new ArrayList<>();
+			}
+			structures.add(new StructureData(new StructureID(chunk, id), boundingBoxes));
+		}
+	}
+
+	private List<StructureData.BoundingBox> readChildren(ChunkInput in) throws IOException {
+		byte elementType = in.readByte();
+		int length = in.readInt();
+		List<StructureData.BoundingBox> children = new ArrayList<>(Math.max(length, 0));
+		if (elementType != COMPOUND) {
+			skipListElements(in, elementType, length);
+			return children;
+		}
+		for (int i = 0; i < length; i++) {
+			byte type;
+			while ((type = in.readByte()) != END) {
+				in.readName();
+				if (type == INT_ARRAY && in.nameEquals(BB)) {
+					StructureData.BoundingBox bb = readBoundingBox(in);
+					if (bb != null) {
+						children.add(bb);
+					}
+				} else {
+					skip(in, type);
+				}
+			}
+		}
+		return children;
+	}
+
+	private static StructureData.BoundingBox readBoundingBox(ChunkInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 6) {
+			in.skip(length * 4L);
+			return null;
+		}
+		StructureData.BoundingBox bb = new StructureData.BoundingBox(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+		in.skip((length - 6) * 4L);
+		return bb;
+	}
+
+	private void scanReferences(ChunkInput in) throws IOException {
+		byte type;
+		while ((type = in.readByte()) != END) {
+			in.readName();
+			if (type != LONG_ARRAY) {
+				skip(in, type);
+				continue;
+			}
+			String id = in.nameString();
+			int length = in.readInt();
+			if (length > 0 && references.isEmpty()) {
+				references = new ArrayList<>();
+			}
+			for (int i = 0; i < length; i++) {
+				references.add(new StructureID(in.readLong(), id));
+			}
+		}
+	}
+
+	private static void skip(ChunkInput in, byte type) throws IOException {
+		switch (type) {
+			case BYTE -> in.skip(1);
+			case SHORT -> in.skip(2);
+			case INT, FLOAT -> in.skip(4);
+			case LONG, DOUBLE -> in.skip(8);
+			case BYTE_ARRAY -> in.skip(in.readInt());
+			case STRING -> in.skipString();
+			case LIST -> {
+				byte elementType = in.readByte();
+				skipListElements(in, elementType, in.readInt());
+			}
+			case COMPOUND -> {
+				byte t;
+				while ((t = in.readByte()) != END) {
+					in.skipString();
+					skip(in, t);
+				}
+			}
+			case INT_ARRAY -> in.skip(in.readInt() * 4L);
+			case LONG_ARRAY -> in.skip(in.readInt() * 8L);
+			default -> throw new IOException("invalid tag type " + type);
+		}
+	}
+
+	private static void skipListElements(ChunkInput in, byte elementType, int length) throws IOException {
+		switch (elementType) {
+			case END -> {}
+			case BYTE -> in.skip(length);
+			case SHORT -> in.skip(length * 2L);
+			case INT, FLOAT -> in.skip(length * 4L);
+			case LONG, DOUBLE -> in.skip(length * 8L);
+			default -> {
+				for (int i = 0; i < length; i++) {
+					skip(in, elementType);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.mca.Chunk;
+import net.querz.nbt.CompoundTag;
+import net.querz.nbt.Tag;
+import net.querz.worldpruner.prune.structures.StructureData;
+import net.querz.worldpruner.prune.structures.StructureID;
+import java.util.List;
+
+// everything the pruner needs to know about a chunk: its InhabitedTime and the structures that start in it or
+// are referenced by it. timestamp is the last modification time of the chunk stored in the region file header.
+public record ChunkSummary(int x, int z, int timestamp, long inhabitedTime, List<StructureData> structures, List<StructureID> references) {
+
+	// chunks without InhabitedTime are always kept
+	public static final long UNKNOWN_INHABITED_TIME = Long.MAX_VALUE;
+
+	public static ChunkSummary fromChunk(Chunk chunk, int timestamp) {
+		if (chunk.isEmpty() || chunk.getData() == null) {
+			return new ChunkSummary(chunk.getX(), chunk.getZ(), timestamp, UNKNOWN_INHABITED_TIME, List.of(), List.of());
+		}
+		return new ChunkSummary(
+				chunk.getX(),
+				chunk.getZ(),
+				timestamp,
+				getInhabitedTime(chunk.getData()),
+				StructureData.fromChunk(chunk),
+				StructureData.getStructureReferences(chunk));
+	}
+
+	private static long getInhabitedTime(CompoundTag data) {
+		if (data.contains("Level", Tag.COMPOUND)) {
+			return data.getCompound("Level").getLongOrDefault("InhabitedTime", UNKNOWN_INHABITED_TIME);
+		} else {
+			return data.getLongOrDefault("InhabitedTime", UNKNOWN_INHABITED_TIME);
+		}
+	}
+}
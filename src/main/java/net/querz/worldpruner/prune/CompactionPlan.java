@@ -0,0 +1,139 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.selection.ChunkSet;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// describes how the chunks of a region file that should be kept are laid out in the compacted file.
+// kept chunks are placed in the order of their offset in the source file, so chunks that are stored next to each
+// other in the source file are still next to each other in the compacted file and can be moved as a single run.
+final class CompactionPlan {
+
+	private final int skippedChunks;
+	private final int deletedChunks;
+	private final ByteBuffer locations;
+	private final ByteBuffer timestamps;
+	// source offset, target offset and length in sectors of each run
+	private final int[] runs;
+	private final int runCount;
+	private final int sectors;
+	// false if the header of the source file is corrupt, see create
+	private final boolean inPlace;
+
+	private CompactionPlan(int skippedChunks, int deletedChunks, ByteBuffer locations, ByteBuffer timestamps, int[] runs, int runCount, int sectors, boolean inPlace) {
+		this.skippedChunks = skippedChunks;
+		this.deletedChunks = deletedChunks;
+		this.locations = locations;
+		this.timestamps = timestamps;
+		this.runs = runs;
+		this.runCount = runCount;
+		this.sectors = sectors;
+		this.inPlace = inPlace;
+	}
+
+	// header is the 8 KiB header of the source file, whitelist the chunks to keep or null to keep all chunks.
+	// compacting in place relies on every chunk being moved towards the front of the file. this is not the case if
+	// chunks overlap or point into the header, because a move would then overwrite chunks that were not moved yet.
+	static CompactionPlan create(ByteBuffer header, ChunkSet whitelist) {
+		int skippedChunks = 0;
+		int deletedChunks = 0;
+
+		// collect all chunks that are kept, sorted by their offset in the source file.
+		// each entry is packed as offset (24 bits) | sectors (8 bits) | index (10 bits).
+		long[] kept = new long[1024];
+		int numKept = 0;
+		for (int i = 0; i < 1024; i++) {
+			int location = header.getInt(i * 4);
+			int offset = location >>> 8;
+			int sectors = location & 0xFF;
+			if (offset == 0 || sectors == 0) {
+				skippedChunks++;
+				continue;
+			}
+
+			if (whitelist != null && !whitelist.get(i)) {
+				deletedChunks++;
+				continue;
+			}
+			kept[numKept++] = (long) offset << 18 | (long) sectors << 10 | i;
+		}
+		Arrays.sort(kept, 0, numKept);
+
+		ByteBuffer locations = ByteBuffer.allocate(4096);
+		ByteBuffer timestamps = ByteBuffer.allocate(4096);
+		int[] runs = new int[numKept * 3];
+		int runCount = 0;
+		int globalOffset = 2; // chunk data starts at 8192 (after 2 sectors)
+		boolean inPlace = true;
+		int previousEnd = 2;
+		for (int k = 0; k < numKept; k++) {
+			int offset = (int) (kept[k] >>> 18);
+			int sectors = (int) (kept[k] >>> 10) & 0xFF;
+			int i = (int) kept[k] & 0x3FF;
+
+			if (offset < previousEnd || globalOffset > offset) {
+				inPlace = false;
+			}
+			previousEnd = Math.max(previousEnd, offset + sectors);
+
+			locations.putInt(i * 4, globalOffset << 8 | sectors);
+			timestamps.putInt(i * 4, header.getInt(4096 + i * 4));
+
+			int last = (runCount - 1) * 3;
+			if (runCount > 0 && runs[last] + runs[last + 2] == offset) {
+				runs[last + 2] += sectors;
+			} else {
+				runs[runCount * 3] = offset;
+				runs[runCount * 3 + 1] = globalOffset;
+				runs[runCount * 3 + 2] = sectors;
+				runCount++;
+			}
+			globalOffset += sectors;
+		}
+		return new CompactionPlan(skippedChunks, deletedChunks, locations, timestamps, runs, runCount, globalOffset, inPlace);
+	}
+
+	int skippedChunks() {
+		return skippedChunks;
+	}
+
+	int deletedChunks() {
+		return deletedChunks;
+	}
+
+	// false if the file can't be compacted in place because its header is corrupt, it can only be compacted into a copy
+	boolean canCompactInPlace() {
+		return inPlace;
+	}
+
+	// true if the source file does not contain any chunks
+	boolean isEmpty() {
+		return skippedChunks == 1024;
+	}
+
+	int runCount() {
+		return runCount;
+	}
+
+	int runSource(int run) {
+		return runs[run * 3];
+	}
+
+	int runTarget(int run) {
+		return runs[run * 3 + 1];
+	}
+
+	int runSectors(int run) {
+		return runs[run * 3 + 2];
+	}
+
+	// the total size of the compacted file in sectors, including the header
+	int sectors() {
+		return sectors;
+	}
+
+	// returns the new header as two buffers (locations and timestamps) ready for a gathered write
+	ByteBuffer[] header() {
+		return new ByteBuffer[]{locations.duplicate().clear(), timestamps.duplicate().clear()};
+	}
+}
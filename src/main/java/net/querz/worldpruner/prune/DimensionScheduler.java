@@ -0,0 +1,237 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.cli.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import jdk.jfr.Recording;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// prunes multiple dimensions of a world at the same time. each dimension is pruned by its own Pruner on its own thread,
+// while all of them share one WorkerPool, so workers that are not needed by a small dimension help with a large one.
+// the ExecutionOptions of the first dimension apply to the whole run, and a single report and flight recording are
+// written for all dimensions.
+// if pruning a dimension is aborted because of an error, the other dimensions are interrupted and abort as well, like
+// a single Pruner stops at the first error. when errors are skipped, nothing is aborted and all dimensions are finished.
+public class DimensionScheduler {
+
+	private static final Logger LOGGER = LogManager.getLogger(DimensionScheduler.class);
+
+	private final Map<String, PruneData> dimensions;
+	private final ErrorHandler errorHandler;
+	private final PruneData.ExecutionOptions execution;
+	// the threads of all dimensions by the order of the dimensions
+	private final List<Thread> threads = new ArrayList<>();
+	private final AtomicBoolean cancelled = new AtomicBoolean();
+
+	public DimensionScheduler(Map<String, PruneData> dimensions, ErrorHandler errorHandler) {
+		if (dimensions.isEmpty()) {
+			throw new IllegalArgumentException("no dimensions to prune");
+		}
+		this.dimensions = dimensions;
+		this.errorHandler = new SynchronizedErrorHandler(errorHandler);
+		this.execution = dimensions.values().iterator().next().execution();
+	}
+
+	public void prune(Progress progress) {
+		Metrics metrics = new Metrics();
+		Recording recording = Pruner.startRecording(execution.jfr());
+		CombinedProgress combined = new CombinedProgress(progress);
+		try (WorkerPool workers = new WorkerPool(execution)) {
+			for (Map.Entry<String, PruneData> dimension : dimensions.entrySet()) {
+				String name = dimension.getKey();
+				ErrorHandler dimensionErrorHandler = new CancellingErrorHandler(threads.size(), name);
+				Pruner pruner = new Pruner(dimension.getValue(), dimensionErrorHandler, workers, metrics, name);
+				Progress dimensionProgress = combined.add(name);
+				threads.add(new Thread(() -> pruneDimension(name, pruner, dimensionErrorHandler, dimensionProgress), "prune-" + name));
+			}
+			LOGGER.info("Pruning {} dimensions {}", dimensions.size(), dimensions.keySet());
+			threads.forEach(Thread::start);
+			join(threads);
+		} finally {
+			Pruner.writeReport(execution.report(), metrics, errorHandler.wasSuccessful());
+			Pruner.stopRecording(recording);
+			progress.done();
+		}
+	}
+
+	private void pruneDimension(String name, Pruner pruner, ErrorHandler errorHandler, Progress progress) {
+		Timer t = new Timer();
+		try {
+			pruner.prune(progress);
+			LOGGER.info("Took {} to prune dimension {}", t, name);
+		} catch (RuntimeException ex) {
+			errorHandler.handle(LOGGER, ex, "Failed to prune dimension {}", name);
+		}
+	}
+
+	// interrupts all dimensions except the one that was aborted, which is already stopping by itself
+	private void cancel(int aborted, String name) {
+		if (!cancelled.compareAndSet(false, true)) {
+			return;
+		}
+		LOGGER.info("Cancelling all dimensions because pruning {} was aborted", name);
+		for (int i = 0; i < threads.size(); i++) {
+			if (i != aborted) {
+				threads.get(i).interrupt();
+			}
+		}
+	}
+
+	// the error handler of a single dimension, which cancels all other dimensions once an error aborts this one
+	private final class CancellingErrorHandler implements ErrorHandler {
+
+		private final int dimension;
+		private final String name;
+
+		CancellingErrorHandler(int dimension, String name) {
+			this.dimension = dimension;
+			this.name = name;
+		}
+
+		@Override
+		public boolean handle(Logger logger, String msg, Object... params) {
+			return cancelIf(errorHandler.handle(logger, msg, params));
+		}
+
+		@Override
+		public boolean handle(Logger logger, Throwable t, String msg, Object... params) {
+			return cancelIf(errorHandler.handle(logger, t, msg, params));
+		}
+
+		@Override
+		public boolean wasSuccessful() {
+			return errorHandler.wasSuccessful();
+		}
+
+		private boolean cancelIf(boolean abort) {
+			if (abort) {
+				cancel(dimension, name);
+			}
+			return abort;
+		}
+	}
+
+	// if this thread is interrupted, all dimensions are interrupted and we still wait for them to finish
+	private static void join(List<Thread> threads) {
+		boolean interrupted = false;
+		for (Thread thread : threads) {
+			while (thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException ex) {
+					interrupted = true;
+					threads.forEach(Thread::interrupt);
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// combines the progress of all dimensions. a Pruner restarts its progress for each phase, so the phases a dimension
+	// already completed are added up and the combined progress never goes backwards. the combined maximum grows
+	// whenever a dimension starts a new phase.
+	private static final class CombinedProgress {
+
+		private final Progress parent;
+		private final List<DimensionProgress> dimensions = new ArrayList<>();
+		private int maximum = -1;
+		private int value = -1;
+
+		CombinedProgress(Progress parent) {
+			this.parent = parent;
+		}
+
+		synchronized Progress add(String name) {
+			DimensionProgress progress = new DimensionProgress(name);
+			dimensions.add(progress);
+			return progress;
+		}
+
+		private void update() {
+			int max = 0;
+			int val = 0;
+			for (DimensionProgress d : dimensions) {
+				max += d.completed + d.max;
+				val += d.completed + Math.min(d.value, d.max);
+			}
+			if (max != maximum) {
+				parent.setIndeterminate(max == 0);
+				parent.setMaximum(max);
+				parent.setValue(val);
+			} else if (val != value) {
+				parent.setValue(val);
+			}
+			maximum = max;
+			value = val;
+		}
+
+		private final class DimensionProgress implements Progress {
+
+			private final String name;
+			// the sum of the maximums of all completed phases
+			private int completed;
+			private int max;
+			private int value;
+
+			DimensionProgress(String name) {
+				this.name = name;
+			}
+
+			@Override
+			public void setMaximum(int max) {
+				synchronized (CombinedProgress.this) {
+					completed += this.max;
+					this.max = max;
+					value = 0;
+					update();
+				}
+			}
+
+			@Override
+			public void setMinimum(int min) {
+				// phases always start at 0
+			}
+
+			@Override
+			public void increment(int inc) {
+				synchronized (CombinedProgress.this) {
+					value += inc;
+					update();
+				}
+			}
+
+			@Override
+			public void setValue(int value) {
+				synchronized (CombinedProgress.this) {
+					this.value = value;
+					update();
+				}
+			}
+
+			@Override
+			public void setIndeterminate(boolean indeterminate) {
+				// the combined progress is only indeterminate while no dimension reports any progress
+			}
+
+			@Override
+			public void done() {
+				synchronized (CombinedProgress.this) {
+					value = max;
+					update();
+				}
+			}
+
+			@Override
+			public void setMessage(String msg) {
+				synchronized (CombinedProgress.this) {
+					parent.setMessage(name + ": " + msg);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package net.querz.worldpruner.prune;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+// compacts a region file without writing a copy of it, by moving all kept chunks towards the front of the file,
+// rewriting the header and truncating the file afterwards.
+//
+// while chunks are being moved, the header of the file still points to the old locations, so an interrupted
+// compaction leaves the file unusable until it is recovered. to make that possible, the planned moves are written to
+// a journal next to the region file before the file is touched. the journal also records how many moves are durable.
+// moves are executed in batches: a batch is committed (the region file is forced to disk and the number of completed
+// moves is written to the journal) before a move would overwrite the source of a move that is not committed yet, so
+// all moves after the last commit can always be redone from their source. a move that overlaps its own source is
+// copied into the journal before it is executed.
+final class InPlaceCompactor {
+
+	private static final Logger LOGGER = LogManager.getLogger(InPlaceCompactor.class);
+
+	static final String JOURNAL_SUFFIX = ".journal";
+
+	private static final int MAGIC = 0x57504A31; // WPJ1
+	private static final int MAX_MOVE_SECTORS = 256;
+	// magic, committed moves, move count, sectors, header
+	private static final int JOURNAL_HEADER_SIZE = 16 + 8192;
+	private static final long COMMITTED_POSITION = 4;
+
+	private final Semaphore ioPermits;
+	// counts the chunk data that is read from region files and journals
+	private final LongAdder bytesRead;
+	private final CrashPoint crashPoint;
+	private final ByteBuffer buffer = ByteBuffer.allocate(MAX_MOVE_SECTORS * 4096);
+
+	InPlaceCompactor(Semaphore ioPermits, LongAdder bytesRead) {
+		this(ioPermits, bytesRead, CrashPoint.NONE);
+	}
+
+	InPlaceCompactor(Semaphore ioPermits, LongAdder bytesRead, CrashPoint crashPoint) {
+		this.ioPermits = ioPermits;
+		this.bytesRead = bytesRead;
+		this.crashPoint = crashPoint;
+	}
+
+	static Path journalFile(Path file) {
+		return file.resolveSibling(file.getFileName() + JOURNAL_SUFFIX);
+	}
+
+	static boolean isJournal(File file) {
+		return file.getName().endsWith(".mca" + JOURNAL_SUFFIX);
+	}
+
+	// compacts file according to plan. channel needs to be opened for reading and writing.
+	void compact(Path file, FileChannel channel, CompactionPlan plan) throws IOException {
+		int[] moves = moves(plan);
+		int moveCount = moves.length / 3;
+		Path journalPath = journalFile(file);
+		try (FileChannel journal = FileChannel.open(journalPath,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+			ByteBuffer[] header = plan.header();
+			ByteBuffer head = ByteBuffer.allocate(16);
+			head.putInt(0).putInt(0).putInt(moveCount).putInt(plan.sectors()).flip();
+			ByteBuffer movesBuffer = ByteBuffer.allocate(moves.length * 4);
+			movesBuffer.asIntBuffer().put(moves);
+			ByteBuffer slot = ByteBuffer.allocate(4).putInt(0, -1);
+
+			withPermit(() -> {
+				writeFully(journal, new ByteBuffer[]{head, header[0], header[1], movesBuffer, slot}, 0);
+				journal.force(false);
+				crashPoint.reached(Stage.JOURNAL_WRITTEN, -1);
+				// the journal only becomes valid once everything else is on disk
+				writeInt(journal, 0, MAGIC);
+				journal.force(false);
+				// the directory entry of the journal has to be on disk before the file is modified
+				Staging.forceDirectory(journalPath.getParent().toFile());
+			});
+
+			execute(channel, journal, moves, 0, plan.header(), plan.sectors());
+			crashPoint.reached(Stage.COMPACTED, moveCount);
+		}
+		Files.delete(journalPath);
+	}
+
+	// finishes an interrupted compaction using the journal of a region file
+	void recover(Path journalPath) throws IOException {
+		String name = journalPath.getFileName().toString();
+		Path file = journalPath.resolveSibling(name.substring(0, name.length() - JOURNAL_SUFFIX.length()));
+
+		try (FileChannel journal = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer head = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+			if (journal.size() < JOURNAL_HEADER_SIZE || readFully(journal, head, 0) < JOURNAL_HEADER_SIZE || head.getInt(0) != MAGIC) {
+				// the journal was not completely written, so the region file has not been modified yet
+				LOGGER.info("Discarding incomplete journal {}", journalPath);
+			} else if (!Files.exists(file)) {
+				LOGGER.warn("Discarding journal {} because {} does not exist", journalPath, file);
+			} else {
+				int committed = head.getInt(4);
+				int moveCount = head.getInt(8);
+				int sectors = head.getInt(12);
+				ByteBuffer movesBuffer = ByteBuffer.allocate(moveCount * 12);
+				if (readFully(journal, movesBuffer, JOURNAL_HEADER_SIZE) < movesBuffer.capacity()) {
+					throw new EOFException("journal " + journalPath + " is truncated");
+				}
+				int[] moves = new int[moveCount * 3];
+				movesBuffer.flip().asIntBuffer().get(moves);
+				ByteBuffer[] header = {head.slice(16, 4096), head.slice(16 + 4096, 4096)};
+
+				LOGGER.info("Recovering interrupted compaction of {} from move {} of {}", file, committed, moveCount);
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+					execute(channel, journal, moves, committed, header, sectors);
+				}
+			}
+		}
+		Files.delete(journalPath);
+	}
+
+	private void execute(FileChannel channel, FileChannel journal, int[] moves, int committed, ByteBuffer[] header, int sectors) throws IOException {
+		int moveCount = moves.length / 3;
+		long slotPosition = JOURNAL_HEADER_SIZE + moves.length * 4L;
+
+		int batchSize = 0;
+		int batchMinSource = Integer.MAX_VALUE;
+		for (int m = committed; m < moveCount; m++) {
+			int source = moves[m * 3];
+			int target = moves[m * 3 + 1];
+			int length = moves[m * 3 + 2];
+			boolean overlapsItself = target + length > source;
+
+			// don't overwrite the source of a move that could still need to be redone
+			if (batchSize > 0 && (overlapsItself || target + length > batchMinSource)) {
+				commit(channel, journal, m);
+				batchSize = 0;
+				batchMinSource = Integer.MAX_VALUE;
+			}
+
+			final int move = m;
+			withPermit(() -> {
+				if (overlapsItself) {
+					// when recovering, the source of this move could already be partially overwritten
+					if (!readSlot(journal, slotPosition, move, length)) {
+						readSectors(channel, source, length);
+						writeSlot(journal, slotPosition, move);
+						crashPoint.reached(Stage.SLOT_WRITTEN, move);
+					}
+				} else {
+					readSectors(channel, source, length);
+				}
+				writeFully(channel, new ByteBuffer[]{buffer}, target * 4096L);
+				crashPoint.reached(Stage.MOVED, move);
+			});
+
+			if (overlapsItself) {
+				commit(channel, journal, m + 1);
+			} else {
+				batchSize++;
+				batchMinSource = Math.min(batchMinSource, source);
+			}
+		}
+		commit(channel, journal, moveCount);
+		crashPoint.reached(Stage.COMMITTED, moveCount);
+
+		withPermit(() -> {
+			writeFully(channel, header, 0);
+			if (channel.size() > sectors * 4096L) {
+				channel.truncate(sectors * 4096L);
+			} else if (channel.size() < sectors * 4096L) {
+				// chunk data always occupies full sectors, even if the source file was truncated
+				channel.write(ByteBuffer.allocate(1), sectors * 4096L - 1);
+			}
+			channel.force(true);
+		});
+	}
+
+	private void commit(FileChannel channel, FileChannel journal, int committed) throws IOException {
+		withPermit(() -> {
+			channel.force(false);
+			writeInt(journal, COMMITTED_POSITION, committed);
+			journal.force(false);
+		});
+	}
+
+	// reads a move into the buffer, padding the data with zeros if the file is shorter than the header claims
+	private void readSectors(FileChannel channel, int offset, int sectors) throws IOException {
+		buffer.clear().limit(sectors * 4096);
+		bytesRead.add(readFully(channel, buffer, offset * 4096L));
+		while (buffer.hasRemaining()) {
+			buffer.put((byte) 0);
+		}
+		buffer.flip();
+	}
+
+	// slot layout: move index, data length, crc32 of the data, data
+	private void writeSlot(FileChannel journal, long slotPosition, int move) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate());
+		ByteBuffer slotHeader = ByteBuffer.allocate(12).putInt(move).putInt(buffer.remaining()).putInt((int) crc.getValue()).flip();
+		writeFully(journal, new ByteBuffer[]{slotHeader, buffer.duplicate()}, slotPosition);
+		journal.force(false);
+	}
+
+	private boolean readSlot(FileChannel journal, long slotPosition, int move, int sectors) throws IOException {
+		ByteBuffer slotHeader = ByteBuffer.allocate(12);
+		if (readFully(journal, slotHeader, slotPosition) < 12 || slotHeader.getInt(0) != move || slotHeader.getInt(4) != sectors * 4096) {
+			return false;
+		}
+		buffer.clear().limit(sectors * 4096);
+		int read = readFully(journal, buffer, slotPosition + 12);
+		bytesRead.add(read);
+		if (read < sectors * 4096) {
+			return false;
+		}
+		buffer.flip();
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate());
+		// a torn write of the slot means that the move itself was never started
+		return (int) crc.getValue() == slotHeader.getInt(8);
+	}
+
+	// splits the runs of the plan into moves of at most MAX_MOVE_SECTORS, skipping runs that don't need to move
+	private static int[] moves(CompactionPlan plan) {
+		int count = 0;
+		for (int r = 0; r < plan.runCount(); r++) {
+			if (plan.runSource(r) != plan.runTarget(r)) {
+				count += (plan.runSectors(r) + MAX_MOVE_SECTORS - 1) / MAX_MOVE_SECTORS;
+			}
+		}
+		int[] moves = new int[count * 3];
+		int m = 0;
+		for (int r = 0; r < plan.runCount(); r++) {
+			if (plan.runSource(r) == plan.runTarget(r)) {
+				continue;
+			}
+			for (int done = 0; done < plan.runSectors(r); done += MAX_MOVE_SECTORS) {
+				moves[m++] = plan.runSource(r) + done;
+				moves[m++] = plan.runTarget(r) + done;
+				moves[m++] = Math.min(MAX_MOVE_SECTORS, plan.runSectors(r) - done);
+			}
+		}
+		return moves;
+	}
+
+	private static int readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+		int total = 0;
+		while (dst.hasRemaining()) {
+			int read = channel.read(dst, position + total);
+			if (read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer[] srcs, long position) throws IOException {
+		channel.position(position);
+		while (srcs[srcs.length - 1].hasRemaining()) {
+			channel.write(srcs);
+		}
+	}
+
+	private static void writeInt(FileChannel channel, long position, int value) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(4).putInt(0, value);
+		while (b.hasRemaining()) {
+			channel.write(b, position + b.position());
+		}
+	}
+
+	private void withPermit(IOAction action) throws IOException {
+		ioPermits.acquireUninterruptibly();
+		try {
+			action.run();
+		} finally {
+			ioPermits.release();
+		}
+	}
+
+	@FunctionalInterface
+	private interface IOAction {
+		void run() throws IOException;
+	}
+
+	// the points at which a compaction can be interrupted, see CrashPoint
+	enum Stage {
+		// the journal is written, but not its magic
+		JOURNAL_WRITTEN,
+		// a move that overlaps its own source was copied into the journal, but not moved yet
+		SLOT_WRITTEN,
+		// a move was written to the file, but not committed yet
+		MOVED,
+		// all moves are committed, but the header is not written yet
+		COMMITTED,
+		// the file is compacted, but the journal is not deleted yet
+		COMPACTED
+	}
+
+	// lets tests interrupt a compaction by throwing an exception when a stage is reached. move is the index of the move,
+	// or -1 if the stage does not belong to a move.
+	@FunctionalInterface
+	interface CrashPoint {
+		CrashPoint NONE = (stage, move) -> {};
+
+		void reached(Stage stage, int move) throws IOException;
+	}
+}
@@ -0,0 +1,228 @@
+package net.querz.worldpruner.prune;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// collects metrics of a pruning run, which are written as a JSON report if requested with --report.
+// counters are updated concurrently by scan and compaction workers, while phases are started by the thread running the
+// Pruner. cpu time is measured for the whole process, so the cpu time of a phase includes all of its worker threads,
+// and the cpu time of phases of dimensions that are pruned at the same time overlaps.
+// phases with the same name, e.g. the scans of all tiles, are added up.
+final class Metrics {
+
+	private final long start = System.nanoTime();
+	private final long startCpu = processCpuTime();
+
+	// wall time, cpu time and count of each phase
+	private final Map<String, long[]> phases = new LinkedHashMap<>();
+
+	final LongAdder bytesRead = new LongAdder();
+	final LongAdder bytesWritten = new LongAdder();
+	final LongAdder chunksDecompressed = new LongAdder();
+	// files that were scanned from memory after they were read by a Prefetcher
+	final LongAdder filesPrefetched = new LongAdder();
+	// chunks that were kept or deleted in files that were rewritten
+	final LongAdder chunksKept = new LongAdder();
+	final LongAdder chunksDeleted = new LongAdder();
+	final LongAdder filesRewritten = new LongAdder();
+	final LongAdder filesDeleted = new LongAdder();
+	// files that were kept completely and not touched
+	final LongAdder filesKept = new LongAdder();
+	final LongAdder structuresKept = new LongAdder();
+	final LongAdder structuresMissing = new LongAdder();
+
+	// time to scan or rewrite a single file in microseconds
+	final Histogram scanLatency = new Histogram();
+	final Histogram compactLatency = new Histogram();
+
+	Metrics() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	// returns the phases of a single Pruner, whose names are prefixed with prefix
+	Phases phases(String prefix) {
+		return new Phases(prefix);
+	}
+
+	private synchronized void addPhase(String name, long wall, long cpu) {
+		long[] p = phases.computeIfAbsent(name, k -> new long[3]);
+		p[0] += wall;
+		p[1] += cpu;
+		p[2]++;
+	}
+
+	private static long processCpuTime() {
+		if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+			return os.getProcessCpuTime();
+		}
+		return 0;
+	}
+
+	// the sum of the peak usage of all heap memory pools since the start of the run
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	synchronized String toJson(boolean success) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		sb.append("  \"success\": ").append(success).append(",\n");
+		sb.append("  \"wallMillis\": ").append(millis(System.nanoTime() - start)).append(",\n");
+		sb.append("  \"cpuMillis\": ").append(millis(processCpuTime() - startCpu)).append(",\n");
+		sb.append("  \"peakHeapBytes\": ").append(peakHeap()).append(",\n");
+		sb.append("  \"phases\": [");
+		boolean first = true;
+		for (Map.Entry<String, long[]> p : phases.entrySet()) {
+			sb.append(first ? "\n" : ",\n");
+			first = false;
+			sb.append("    {\"name\": \"").append(escape(p.getKey())).append('"');
+			sb.append(", \"count\": ").append(p.getValue()[2]);
+			sb.append(", \"wallMillis\": ").append(millis(p.getValue()[0]));
+			sb.append(", \"cpuMillis\": ").append(millis(p.getValue()[1])).append('}');
+		}
+		sb.append(first ? "],\n" : "\n  ],\n");
+		sb.append("  \"bytesRead\": ").append(bytesRead.sum()).append(",\n");
+		sb.append("  \"bytesWritten\": ").append(bytesWritten.sum()).append(",\n");
+		sb.append("  \"chunksDecompressed\": ").append(chunksDecompressed.sum()).append(",\n");
+		sb.append("  \"filesPrefetched\": ").append(filesPrefetched.sum()).append(",\n");
+		sb.append("  \"chunksKept\": ").append(chunksKept.sum()).append(",\n");
+		sb.append("  \"chunksDeleted\": ").append(chunksDeleted.sum()).append(",\n");
+		sb.append("  \"filesRewritten\": ").append(filesRewritten.sum()).append(",\n");
+		sb.append("  \"filesDeleted\": ").append(filesDeleted.sum()).append(",\n");
+		sb.append("  \"filesKept\": ").append(filesKept.sum()).append(",\n");
+		sb.append("  \"structuresKept\": ").append(structuresKept.sum()).append(",\n");
+		sb.append("  \"structuresMissing\": ").append(structuresMissing.sum()).append(",\n");
+		sb.append("  \"scanLatencyMicros\": ").append(scanLatency.toJson()).append(",\n");
+		sb.append("  \"compactLatencyMicros\": ").append(compactLatency.toJson()).append('\n');
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	// phase names contain the names of dimension folders, which can contain any character
+	static String escape(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"' -> sb.append("\\\"");
+				case '\\' -> sb.append("\\\\");
+				case '\n' -> sb.append("\\n");
+				case '\r' -> sb.append("\\r");
+				case '\t' -> sb.append("\\t");
+				default -> {
+					if (c < 0x20) {
+						sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	// times the phases of a single Pruner, which runs one phase at a time
+	final class Phases {
+
+		private final String prefix;
+		private String phase;
+		private long phaseStart;
+		private long phaseStartCpu;
+
+		private Phases(String prefix) {
+			this.prefix = prefix;
+		}
+
+		// ends the current phase and starts the next one, or only ends the current phase if name is null
+		void phase(String name) {
+			long now = System.nanoTime();
+			long cpu = processCpuTime();
+			if (phase != null) {
+				addPhase(prefix + phase, now - phaseStart, cpu - phaseStartCpu);
+			}
+			phase = name;
+			phaseStart = now;
+			phaseStartCpu = cpu;
+		}
+	}
+
+	// records values in buckets of an eighth of a power of two, so percentiles are accurate to 12.5%
+	static final class Histogram {
+
+		private final AtomicLongArray counts = new AtomicLongArray(64 * 8);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		void record(long value) {
+			value = Math.max(value, 0);
+			counts.incrementAndGet(bucket(value));
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		// values below 16 have their own bucket, larger values share a bucket with values that have the same 4 highest bits
+		static int bucket(long value) {
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			if (exponent < 4) {
+				return (int) value;
+			}
+			return (exponent - 2) << 3 | (int) (value >>> (exponent - 3)) & 7;
+		}
+
+		// the largest value of a bucket
+		static long bucketMax(int bucket) {
+			if (bucket < 16) {
+				return bucket;
+			}
+			int exponent = (bucket >>> 3) + 2;
+			return ((8L | bucket & 7) << (exponent - 3)) + (1L << (exponent - 3)) - 1;
+		}
+
+		// returns the smallest recorded value that p percent of all values are less than or equal to, or 0 if there are
+		// no values. the value is rounded up to the end of its bucket.
+		long percentile(double p) {
+			long n = count.sum();
+			if (n == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(n * p / 100));
+			long seen = 0;
+			for (int i = 0; i < counts.length(); i++) {
+				seen += counts.get(i);
+				if (seen >= rank) {
+					return Math.min(bucketMax(i), max.get());
+				}
+			}
+			return max.get();
+		}
+
+		String toJson() {
+			long n = count.sum();
+			return String.format(Locale.ROOT, "{\"count\": %d, \"mean\": %.1f, \"p50\": %d, \"p90\": %d, \"p99\": %d, \"max\": %d}",
+					n, n == 0 ? 0.0 : (double) sum.sum() / n, percentile(50), percentile(90), percentile(99), max.get());
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package net.querz.worldpruner.prune;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import net.querz.worldpruner.selection.Point;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// reads the region files that are scanned next into memory ahead of the scan workers, so reading files overlaps with
+// decompressing and scanning other files instead of alternating with it. this mostly helps on storage with a high
+// latency per file, like network volumes.
+// files are read in the order of the Workload by the prefetch threads of the WorkerPool. the memory used by files that
+// have been read but not scanned yet is limited by a budget that is shared by all dimensions, the prefetch threads
+// wait until files have been scanned if it is used up. a file that a scan worker needs before it has been prefetched
+// is read by the worker itself and is skipped by the prefetch threads. files that are larger than the whole budget are
+// never prefetched.
+final class Prefetcher implements AutoCloseable {
+
+	private static final Logger LOGGER = LogManager.getLogger(Prefetcher.class);
+
+	private final File dir;
+	private final long[] regions;
+	private final long[] sizes;
+	private final WorkerPool workers;
+	// in KiB
+	private final Semaphore budget;
+	private final AtomicInteger next = new AtomicInteger();
+	private final List<Future<?>> readers = new ArrayList<>();
+
+	// files that are being read or have been read, guarded by this
+	private final Long2ObjectOpenHashMap<Pending> entries = new Long2ObjectOpenHashMap<>();
+	// files that a scan worker started to read itself, guarded by this
+	private final LongOpenHashSet taken = new LongOpenHashSet();
+	private boolean closed;
+
+	// regions and sizes are in the order the files are scanned
+	Prefetcher(File dir, long[] regions, long[] sizes, WorkerPool workers) {
+		this.dir = dir;
+		this.regions = regions;
+		this.sizes = sizes;
+		this.workers = workers;
+		this.budget = workers.prefetchBudget();
+	}
+
+	void start() {
+		for (int i = 0; i < workers.prefetchThreads(); i++) {
+			readers.add(workers.prefetch().submit(this::read));
+		}
+	}
+
+	private void read() {
+		int i;
+		while ((i = next.getAndIncrement()) < regions.length) {
+			long region = regions[i];
+			// empty files are not read by the scan
+			if (sizes[i] <= 8192 || sizes[i] > workers.prefetchBytes()) {
+				continue;
+			}
+			int permits = (int) ((sizes[i] + 1023) >> 10);
+			try {
+				budget.acquire(permits);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			Pending entry = new Pending(new CompletableFuture<>(), permits);
+			synchronized (this) {
+				if (closed || taken.contains(region)) {
+					budget.release(permits);
+					if (closed) {
+						return;
+					}
+					continue;
+				}
+				entries.put(region, entry);
+			}
+
+			ByteBuffer data = null;
+			File file = Pruner.toFile(dir, new Point(region));
+			try {
+				data = readFile(file);
+			} catch (IOException ex) {
+				// the scan worker reads the file again and handles the error
+				LOGGER.debug("Failed to prefetch {}", file, ex);
+			}
+			entry.data.complete(data);
+
+			synchronized (this) {
+				if (closed && entries.remove(region) != null) {
+					budget.release(permits);
+				}
+			}
+		}
+	}
+
+	private static ByteBuffer readFile(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("file " + file + " is too large");
+			}
+			ByteBuffer data = ByteBuffer.allocate((int) size);
+			Pruner.readFully(channel, data, 0);
+			return data;
+		}
+	}
+
+	// returns the contents of a file if it has been prefetched, waiting for it if it is being read right now.
+	// returns null if the file has not been prefetched, in which case it will not be prefetched anymore.
+	// a file that was returned must be released once it has been scanned.
+	Prefetched take(long region) {
+		Pending entry;
+		synchronized (this) {
+			entry = entries.remove(region);
+			if (entry == null) {
+				taken.add(region);
+				return null;
+			}
+		}
+		// the file is read completely in any case, so we don't want to lose track of its memory if we are interrupted
+		boolean interrupted = false;
+		ByteBuffer data;
+		while (true) {
+			try {
+				data = entry.data.get();
+				break;
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			} catch (ExecutionException ex) {
+				data = null;
+				break;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (data == null) {
+			budget.release(entry.permits);
+			return null;
+		}
+		return new Prefetched(data, entry.permits);
+	}
+
+	// whether a file has been read completely and was not taken yet
+	synchronized boolean isPrefetched(long region) {
+		Pending entry = entries.get(region);
+		return entry != null && entry.data.isDone();
+	}
+
+	void release(Prefetched prefetched) {
+		budget.release(prefetched.permits());
+	}
+
+	// stops prefetching and frees the memory of all files that have not been taken by a scan worker
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			ObjectIterator<Long2ObjectMap.Entry<Pending>> it = entries.long2ObjectEntrySet().fastIterator();
+			while (it.hasNext()) {
+				Pending entry = it.next().getValue();
+				// files that are being read right now are released by the prefetch thread
+				if (entry.data.isDone()) {
+					it.remove();
+					budget.release(entry.permits);
+				}
+			}
+		}
+		for (Future<?> reader : readers) {
+			reader.cancel(true);
+		}
+	}
+
+	private record Pending(CompletableFuture<ByteBuffer> data, int permits) {}
+
+	// the contents of a file that has been read into memory, positioned at the start of the file
+	record Prefetched(ByteBuffer data, int permits) {}
+}
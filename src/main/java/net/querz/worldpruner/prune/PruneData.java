@@ -10,9 +10,12 @@ import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -24,12 +27,17 @@ public record PruneData(
 		int radius,
 		Selection whitelist,
 		boolean continueOnError,
-		boolean whitelistOnly) {
+		boolean whitelistOnly,
+		ExecutionOptions execution) {
 
 	private static final Logger LOGGER = LogManager.getLogger(PruneData.class);
 
+	public PruneData(WorldDirectory dir, long inhabitedTime, int radius, Selection whitelist, boolean continueOnError, boolean whitelistOnly, ExecutionOptions execution) {
+		this(dir.region, dir.poi, dir.entities, inhabitedTime, radius, whitelist, continueOnError, whitelistOnly, execution);
+	}
+
 	public PruneData(WorldDirectory dir, long inhabitedTime, int radius, Selection whitelist, boolean continueOnError, boolean whitelistOnly) {
-		this(dir.region, dir.poi, dir.entities, inhabitedTime, radius, whitelist, continueOnError, whitelistOnly);
+		this(dir, inhabitedTime, radius, whitelist, continueOnError, whitelistOnly, ExecutionOptions.defaults());
 	}
 
 	public PruneData(WorldDirectory dir, long inhabitedTime, int radius, Selection whitelist, boolean whitelistOnly) {
@@ -39,6 +47,9 @@ public record PruneData(
 	public static final int MIN_RADIUS = 0;
 	public static final int MAX_RADIUS = 128;
 
+	public static final int MIN_THREADS = 1;
+	public static final int MIN_TILE_SIZE = 1;
+
 	private static final long TICKS_PER_SECOND = 20L;
 	private static final Map<Pattern, Long> DURATION_REGEXP = new HashMap<>();
 
@@ -88,8 +99,52 @@ public record PruneData(
 		return radius;
 	}
 
+	public static int parseIOLimit(String l) {
+		int ioLimit = Integer.parseInt(l);
+		if (ioLimit < MIN_THREADS) {
+			throw new IllegalArgumentException("I/O limit out of bounds: " + ioLimit);
+		}
+		return ioLimit;
+	}
+
+	public static int parseTileSize(String t) {
+		int tileSize = Integer.parseInt(t);
+		if (tileSize < MIN_TILE_SIZE) {
+			throw new IllegalArgumentException("Tile size out of bounds: " + tileSize);
+		}
+		return tileSize;
+	}
+
+	public static IoOrder parseIoOrder(String o) {
+		return switch (o) {
+			case "size" -> IoOrder.SIZE;
+			case "disk" -> IoOrder.DISK;
+			default -> throw new IllegalArgumentException("Unknown I/O order: " + o);
+		};
+	}
+
+	public static int parsePrefetchMemory(String m) {
+		int prefetchMemory = Integer.parseInt(m);
+		if (prefetchMemory < 0) {
+			throw new IllegalArgumentException("Prefetch memory out of bounds: " + prefetchMemory);
+		}
+		if (prefetchMemory * 1024L * 1024L > Runtime.getRuntime().maxMemory() / 2) {
+			LOGGER.warn("Prefetch memory of {} MiB is more than half of the maximum heap size", prefetchMemory);
+		}
+		return prefetchMemory;
+	}
+
+	public static int parseThreads(String t) {
+		int threads = Integer.parseInt(t);
+		if (threads < MIN_THREADS) {
+			throw new IllegalArgumentException("Thread count out of bounds: " + threads);
+		}
+		return threads;
+	}
+
+	// returns the data to prune each selected dimension by its name, or null if the arguments are invalid
 	@Nullable
-	public static PruneData parseArgs(String... args) {
+	public static Map<String, PruneData> parseArgs(String... args) {
 		Options options = new Options();
 		options.addOption(Option.builder("h")
 				.longOpt("help")
@@ -119,6 +174,88 @@ public record PruneData(
 				.longOpt("white-list-only")
 				.desc("Prune everything except the whitelist")
 				.build());
+		options.addOption(Option.builder()
+				.longOpt("threads")
+				.hasArg()
+				.desc("The number of threads used to scan region files")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("compact-threads")
+				.hasArg()
+				.desc("The number of region files that are rewritten at the same time")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("io-limit")
+				.hasArg()
+				.desc("The maximum number of concurrent file operations while rewriting region files")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("io-order")
+				.hasArg()
+				.argName("size|disk")
+				.desc("The order in which region files are processed, largest first or by their location on disk for hard drives")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("prefetch")
+				.hasArg()
+				.argName("MiB")
+				.desc("Reads the next region files into memory while scanning, using at most this much memory")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("in-place")
+				.desc("Compacts region files in place instead of writing a copy, requires less free disk space")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("scan-index")
+				.desc("Stores the scan results in the world folder to only scan modified chunks in the next run")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("tile-size")
+				.hasArg()
+				.desc("Prunes the world in tiles of this many regions squared to limit memory usage")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("pipeline")
+				.desc("Compacts region files while the world is still being scanned, once the regions around them are scanned")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("mmap")
+				.desc("Maps region files into memory while scanning them instead of reading them, not supported on Windows")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("report")
+				.hasArg()
+				.desc("Writes metrics of the run as JSON to this file")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("jfr")
+				.hasArg()
+				.desc("Records a Java Flight Recording of the run to this file")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("resume")
+				.desc("Resumes an interrupted run with the same settings from its checkpoint instead of scanning again")
+				.build());
+
+		options.addOption(Option.builder()
+				.longOpt("dimensions")
+				.hasArg()
+				.desc("The dimensions to prune at the same time, as a comma separated list like minecraft:the_nether or all")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("dimension-time")
+				.numberOfArgs(2)
+				.valueSeparator('=')
+				.argName("dimension=time")
+				.desc("The minimum time a chunk should have to be kept in a single dimension")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("dimension-radius")
+				.numberOfArgs(2)
+				.valueSeparator('=')
+				.argName("dimension=radius")
+				.desc("The radius of additional chunks preserved around matching chunks in a single dimension")
+				.build());
 
 		options.addOption(Option.builder("c")
 				.longOpt("continue-on-error")
@@ -140,6 +277,15 @@ public record PruneData(
 
 			long inhabitedTime = parseDuration(line.getOptionValue("time", "0s")) * TICKS_PER_SECOND;
 			int radius = parseRadius(line.getOptionValue("radius", "0"));
+			ExecutionOptions defaults = ExecutionOptions.defaults();
+			int threads = parseThreads(line.getOptionValue("threads", String.valueOf(defaults.threads())));
+			int compactThreads = parseThreads(line.getOptionValue("compact-threads", String.valueOf(defaults.compactThreads())));
+			int ioLimit = parseIOLimit(line.getOptionValue("io-limit", String.valueOf(compactThreads)));
+			int tileSize = line.hasOption("tile-size") ? parseTileSize(line.getOptionValue("tile-size")) : defaults.tileSize();
+			File report = line.hasOption("report") ? new File(line.getOptionValue("report")) : null;
+			File jfr = line.hasOption("jfr") ? new File(line.getOptionValue("jfr")) : null;
+			IoOrder ioOrder = line.hasOption("io-order") ? parseIoOrder(line.getOptionValue("io-order")) : defaults.ioOrder();
+			int prefetchMemory = line.hasOption("prefetch") ? parsePrefetchMemory(line.getOptionValue("prefetch")) : defaults.prefetchMemory();
 			Selection whitelist = new Selection();
 			if (line.hasOption("white-list")) {
 				whitelist = Selection.parseCSV(new File(line.getOptionValue("white-list")));
@@ -161,11 +307,70 @@ public record PruneData(
 				return null;
 			}
 
+			if (line.hasOption("pipeline") && line.hasOption("tile-size")) {
+				LOGGER.error("Can't prune in tiles and pipeline at the same time");
+				return null;
+			}
+
+			// windows can't replace, truncate or delete a file while it is mapped, and a mapping is only released once it is
+			// garbage collected
+			if (line.hasOption("mmap") && System.getProperty("os.name", "").startsWith("Windows")) {
+				LOGGER.error("--mmap is not supported on Windows");
+				return null;
+			}
+
 			if (line.hasOption("debug")) {
 				ThreadContext.put("dynamicLogLevel", "DEBUG");
 			}
 
-			return new PruneData(world, inhabitedTime, radius, whitelist, line.hasOption("c"), line.hasOption("l"));
+			Map<String, WorldDirectory> dimensions = selectDimensions(worldDir, world, line.getOptionValue("dimensions"));
+			if (dimensions == null) {
+				return null;
+			}
+			Properties times = line.getOptionProperties("dimension-time");
+			Properties radii = line.getOptionProperties("dimension-radius");
+			for (String dimension : times.stringPropertyNames()) {
+				if (!dimensions.containsKey(dimension)) {
+					LOGGER.error("Dimension \"{}\" of --dimension-time is not pruned", dimension);
+					return null;
+				}
+			}
+			for (String dimension : radii.stringPropertyNames()) {
+				if (!dimensions.containsKey(dimension)) {
+					LOGGER.error("Dimension \"{}\" of --dimension-radius is not pruned", dimension);
+					return null;
+				}
+			}
+
+			ExecutionOptions execution = ExecutionOptions.builder()
+					.threads(threads)
+					.compactThreads(compactThreads)
+					.ioLimit(ioLimit)
+					.inPlace(line.hasOption("in-place"))
+					.scanIndex(line.hasOption("scan-index"))
+					.mmap(line.hasOption("mmap"))
+					.tileSize(tileSize)
+					.report(report)
+					.jfr(jfr)
+					.resume(line.hasOption("resume"))
+					.ioOrder(ioOrder)
+					.prefetchMemory(prefetchMemory)
+					.pipeline(line.hasOption("pipeline"))
+					.build();
+			Map<String, PruneData> data = new LinkedHashMap<>();
+			for (Map.Entry<String, WorldDirectory> dimension : dimensions.entrySet()) {
+				String time = times.getProperty(dimension.getKey());
+				String r = radii.getProperty(dimension.getKey());
+				data.put(dimension.getKey(), new PruneData(
+						dimension.getValue(),
+						time == null ? inhabitedTime : parseDuration(time) * TICKS_PER_SECOND,
+						r == null ? radius : parseRadius(r),
+						whitelist,
+						line.hasOption("c"),
+						line.hasOption("l"),
+						execution));
+			}
+			return data;
 		} catch (ParseException | IllegalArgumentException e) {
 			LOGGER.error(e.getMessage());
 			printHelp(options);
@@ -177,12 +382,204 @@ public record PruneData(
 		}
 	}
 
+	// returns the dimensions selected with --dimensions, which is only the overworld by default
+	private static Map<String, WorldDirectory> selectDimensions(File worldDir, WorldDirectory overworld, String selected) {
+		if (selected == null) {
+			return Map.of(WorldDirectory.OVERWORLD, overworld);
+		}
+		Map<String, WorldDirectory> all = WorldDirectory.discoverDimensions(worldDir);
+		if (selected.equals("all")) {
+			return all;
+		}
+		Map<String, WorldDirectory> dimensions = new LinkedHashMap<>();
+		for (String name : selected.split(",")) {
+			name = name.trim();
+			WorldDirectory dimension = all.get(name);
+			if (dimension == null) {
+				LOGGER.error("Could not find dimension \"{}\" in world, found {}", name, all.keySet());
+				return null;
+			}
+			dimensions.put(name, dimension);
+		}
+		return dimensions;
+	}
+
 	private static void printHelp(Options options) {
 		HelpFormatter formatter = new HelpFormatter();
 		formatter.printHelp("java -jar WorldPruner.jar <args>", options);
 	}
 
+	// tileSize is 0 if the world is not pruned in tiles. report and jfr are null if no report or flight recording
+	// should be written. prefetchMemory is in MiB and 0 if files are not prefetched. pipeline is true if files are
+	// compacted while the world is still being scanned.
+	public record ExecutionOptions(int threads, int compactThreads, int ioLimit, boolean inPlace, boolean scanIndex, boolean mmap, int tileSize, @Nullable File report, @Nullable File jfr, boolean resume, IoOrder ioOrder, int prefetchMemory, boolean pipeline) {
+		public static ExecutionOptions defaults() {
+			int processors = Runtime.getRuntime().availableProcessors();
+			return new ExecutionOptions(processors, processors, processors, false, false, false, 0, null, null, false, IoOrder.SIZE, 0, false);
+		}
+
+		// starts from the defaults, so options can be added without changing every caller
+		public static Builder builder() {
+			return new Builder(defaults());
+		}
+
+		public static final class Builder {
+
+			private int threads;
+			private int compactThreads;
+			private int ioLimit;
+			private boolean inPlace;
+			private boolean scanIndex;
+			private boolean mmap;
+			private int tileSize;
+			private File report;
+			private File jfr;
+			private boolean resume;
+			private IoOrder ioOrder;
+			private int prefetchMemory;
+			private boolean pipeline;
+
+			private Builder(ExecutionOptions defaults) {
+				threads = defaults.threads;
+				compactThreads = defaults.compactThreads;
+				ioLimit = defaults.ioLimit;
+				inPlace = defaults.inPlace;
+				scanIndex = defaults.scanIndex;
+				mmap = defaults.mmap;
+				tileSize = defaults.tileSize;
+				report = defaults.report;
+				jfr = defaults.jfr;
+				resume = defaults.resume;
+				ioOrder = defaults.ioOrder;
+				prefetchMemory = defaults.prefetchMemory;
+				pipeline = defaults.pipeline;
+			}
+
+			public Builder threads(int threads) {
+				this.threads = threads;
+				return this;
+			}
+
+			public Builder compactThreads(int compactThreads) {
+				this.compactThreads = compactThreads;
+				return this;
+			}
+
+			public Builder ioLimit(int ioLimit) {
+				this.ioLimit = ioLimit;
+				return this;
+			}
+
+			public Builder inPlace(boolean inPlace) {
+				this.inPlace = inPlace;
+				return this;
+			}
+
+			public Builder scanIndex(boolean scanIndex) {
+				this.scanIndex = scanIndex;
+				return this;
+			}
+
+			public Builder mmap(boolean mmap) {
+				this.mmap = mmap;
+				return this;
+			}
+
+			public Builder tileSize(int tileSize) {
+				this.tileSize = tileSize;
+				return this;
+			}
+
+			public Builder report(@Nullable File report) {
+				this.report = report;
+				return this;
+			}
+
+			public Builder jfr(@Nullable File jfr) {
+				this.jfr = jfr;
+				return this;
+			}
+
+			public Builder resume(boolean resume) {
+				this.resume = resume;
+				return this;
+			}
+
+			public Builder ioOrder(IoOrder ioOrder) {
+				this.ioOrder = ioOrder;
+				return this;
+			}
+
+			public Builder prefetchMemory(int prefetchMemory) {
+				this.prefetchMemory = prefetchMemory;
+				return this;
+			}
+
+			public Builder pipeline(boolean pipeline) {
+				this.pipeline = pipeline;
+				return this;
+			}
+
+			public ExecutionOptions build() {
+				return new ExecutionOptions(threads, compactThreads, ioLimit, inPlace, scanIndex, mmap, tileSize, report, jfr, resume, ioOrder, prefetchMemory, pipeline);
+			}
+		}
+	}
+
+	// the order in which region files are scanned and compacted, see Workload
+	public enum IoOrder {
+		// largest files first, so a few large files don't hold up the end of a phase
+		SIZE,
+		// the order of the files on disk, which avoids seeking on hard drives
+		DISK
+	}
+
 	public record WorldDirectory(File region, File poi, File entities) {
+
+		public static final String OVERWORLD = "minecraft:overworld";
+		public static final String THE_NETHER = "minecraft:the_nether";
+		public static final String THE_END = "minecraft:the_end";
+
+		// finds all dimensions of a world by their name: the overworld, the nether in DIM-1, the end in DIM1 and the
+		// dimensions of datapacks in dimensions/<namespace>/<path>. dimensions without a region folder are skipped.
+		public static Map<String, WorldDirectory> discoverDimensions(File worldDir) {
+			Map<String, WorldDirectory> dimensions = new LinkedHashMap<>();
+			addDimension(dimensions, OVERWORLD, worldDir);
+			addDimension(dimensions, THE_NETHER, new File(worldDir, "DIM-1"));
+			addDimension(dimensions, THE_END, new File(worldDir, "DIM1"));
+			File[] namespaces = new File(worldDir, "dimensions").listFiles(File::isDirectory);
+			if (namespaces != null) {
+				Arrays.sort(namespaces);
+				for (File namespace : namespaces) {
+					findDimensions(dimensions, namespace.getName() + ":", namespace);
+				}
+			}
+			return dimensions;
+		}
+
+		// the path of a dimension can consist of multiple folders, e.g. dimensions/<namespace>/a/b is <namespace>:a/b
+		private static void findDimensions(Map<String, WorldDirectory> dimensions, String prefix, File dir) {
+			File[] children = dir.listFiles(File::isDirectory);
+			if (children == null) {
+				return;
+			}
+			Arrays.sort(children);
+			for (File child : children) {
+				if (new File(child, "region").isDirectory()) {
+					addDimension(dimensions, prefix + child.getName(), child);
+				} else {
+					findDimensions(dimensions, prefix + child.getName() + "/", child);
+				}
+			}
+		}
+
+		private static void addDimension(Map<String, WorldDirectory> dimensions, String name, File dir) {
+			WorldDirectory dimension = parseWorldDirectory(dir);
+			if (dimension != null) {
+				dimensions.putIfAbsent(name, dimension);
+			}
+		}
+
 		public static WorldDirectory parseWorldDirectory(File dir) {
 			if (!dir.isDirectory()) {
 				return null;
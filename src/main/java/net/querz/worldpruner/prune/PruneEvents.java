@@ -0,0 +1,142 @@
+package net.querz.worldpruner.prune;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Java Flight Recorder events of a pruning run, recorded with --jfr or any other JFR recording.
+// events are cheap when no recording is running, expensive fields are only computed if the event is committed.
+public final class PruneEvents {
+
+	private PruneEvents() {}
+
+	@Name("net.querz.worldpruner.RegionScan")
+	@Label("Region Scan")
+	@Description("Reads the chunks of a region file to find the chunks and structures that are kept")
+	@Category({"WorldPruner", "Scan"})
+	@StackTrace(false)
+	public static final class RegionScan extends Event {
+		@Label("Region X")
+		public int regionX;
+		@Label("Region Z")
+		public int regionZ;
+		@Label("Bytes Read")
+		@DataAmount
+		public long bytesRead;
+		@Label("Chunks Decompressed")
+		public int chunksDecompressed;
+		// scanned, indexed, empty, deleted or failed
+		@Label("Outcome")
+		public String outcome;
+	}
+
+	// chunks are decoded very often, so only slow ones are recorded by default
+	@Name("net.querz.worldpruner.ChunkDecode")
+	@Label("Chunk Decode")
+	@Description("Decompresses and scans a single chunk")
+	@Category({"WorldPruner", "Scan"})
+	@StackTrace(false)
+	@Threshold("1 ms")
+	public static final class ChunkDecode extends Event {
+		@Label("Chunk X")
+		public int chunkX;
+		@Label("Chunk Z")
+		public int chunkZ;
+		@Label("Compression")
+		public int compression;
+		@Label("Compressed Size")
+		@DataAmount
+		public int compressedSize;
+		// scanned or unsupported
+		@Label("Outcome")
+		public String outcome;
+	}
+
+	@Name("net.querz.worldpruner.StructureLookup")
+	@Label("Structure Lookup")
+	@Description("Reads the start chunks of kept structures that were not found while scanning")
+	@Category({"WorldPruner", "Structures"})
+	@StackTrace(false)
+	public static final class StructureLookup extends Event {
+		@Label("Missing Starts")
+		public int missingStarts;
+		@Label("Files")
+		public int files;
+	}
+
+	@Name("net.querz.worldpruner.StructureResolution")
+	@Label("Structure Resolution")
+	@Description("Selects the chunks of all kept structures")
+	@Category({"WorldPruner", "Structures"})
+	@StackTrace(false)
+	public static final class StructureResolution extends Event {
+		@Label("Kept Structures")
+		public int keptStructures;
+		@Label("Missing Structures")
+		public int missingStructures;
+		@Label("Selected Chunks")
+		public long selectedChunks;
+		@Label("Partial")
+		public boolean partial;
+	}
+
+	@Name("net.querz.worldpruner.RadiusDilation")
+	@Label("Radius Dilation")
+	@Description("Adds the radius around all chunks that are kept because of their InhabitedTime")
+	@Category({"WorldPruner", "Scan"})
+	@StackTrace(false)
+	public static final class RadiusDilation extends Event {
+		@Label("Radius")
+		public int radius;
+		@Label("Seed Chunks")
+		public long seedChunks;
+		@Label("Selected Chunks")
+		public long selectedChunks;
+	}
+
+	@Name("net.querz.worldpruner.RegionCompaction")
+	@Label("Region Compaction")
+	@Description("Removes the pruned chunks from a region, poi or entities file")
+	@Category({"WorldPruner", "Compaction"})
+	@StackTrace(false)
+	public static final class RegionCompaction extends Event {
+		@Label("Directory")
+		public String directory;
+		@Label("Region X")
+		public int regionX;
+		@Label("Region Z")
+		public int regionZ;
+		@Label("In Place")
+		public boolean inPlace;
+		@Label("Size Before")
+		@DataAmount
+		public long size;
+		@Label("Chunks Kept")
+		public int chunksKept;
+		@Label("Chunks Deleted")
+		public int chunksDeleted;
+		// rewritten, deleted or failed
+		@Label("Outcome")
+		public String outcome;
+	}
+
+	@Name("net.querz.worldpruner.FileCommit")
+	@Label("File Commit")
+	@Description("Replaces a region file with its compacted copy from the staging directory")
+	@Category({"WorldPruner", "Compaction"})
+	@StackTrace(false)
+	public static final class FileCommit extends Event {
+		@Label("File")
+		public String file;
+		@Label("Size")
+		@DataAmount
+		public long size;
+		@Label("Success")
+		public boolean success;
+	}
+}
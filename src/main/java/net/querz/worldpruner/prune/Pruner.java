@@ -1,25 +1,49 @@
 package net.querz.worldpruner.prune;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.querz.mca.Chunk;
 import net.querz.mca.MCAFile;
 import net.querz.mca.MCAFileHandle;
 import net.querz.mca.MCCFileHandler;
 import net.querz.mca.seekable.SeekableFile;
-import net.querz.nbt.CompoundTag;
-import net.querz.nbt.Tag;
 import net.querz.worldpruner.cli.Timer;
 import net.querz.worldpruner.selection.ChunkSet;
+import net.querz.worldpruner.selection.Dilation;
 import net.querz.worldpruner.selection.PrunerSelectionStreamTagVisitor;
 import net.querz.worldpruner.selection.Selection;
 import net.querz.worldpruner.prune.structures.StructureManager;
 import net.querz.worldpruner.selection.Point;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,28 +51,72 @@ public class Pruner {
 
 	private static final Logger LOGGER = LogManager.getLogger(Pruner.class);
 
+	// the maximum number of staged files before they are committed, limits the disk space used by staged files.
+	// also the maximum number of pruned files that are not recorded in the checkpoint yet.
+	private static final int STAGING_BATCH_SIZE = 64;
+	// the maximum distance in chunks from the start of a structure to the end of its bounding boxes
+	private static final int MAX_STRUCTURE_EXTENT = 16;
+
 	public static final Pattern MCA_FILE_PATTERN = Pattern.compile("^r\\.(?<x>-?\\d+)\\.(?<z>-?\\d+)\\.mca$");
 
 	private final PruneData pruneData;
 	private final ErrorHandler errorHandler;
-	private final int radiusSquared;
+	// false if this Pruner prunes one of multiple dimensions with a DimensionScheduler, which owns the workers and
+	// writes the report and flight recording
+	private final boolean standalone;
+	private final WorkerPool workers;
+	// limits the number of file operations that are in flight at the same time while rewriting files
+	private final Semaphore ioPermits;
+	// rewritten files are written to the staging directory and committed in batches
+	private final Staging staging;
+	// null if the scan index is disabled
+	private final ScanIndex scanIndex;
+	// each scan thread reuses its own reader for all region files it scans
+	private final ThreadLocal<RegionReader> regionReaders;
+	private final Metrics metrics;
+	private final Metrics.Phases phases;
+	private final Checkpoint checkpoint;
+	// the checkpoint of an interrupted run that is resumed, or null
+	private Checkpoint.State resumed;
+	// regions whose files have been pruned since the staged files were last committed
+	private final LongArrayList finished = new LongArrayList();
 
 	private LongOpenHashSet allRegionFiles = new LongOpenHashSet();
 	private LongOpenHashSet allPoiFiles = new LongOpenHashSet();
 	private LongOpenHashSet allEntityFiles = new LongOpenHashSet();
 
+	// the whitelist is never modified during a run, so it can safely be read by multiple scan workers
+	private Selection whitelist;
 	private Selection selection;
-	private final StructureManager structureManager;
+	private StructureManager structureManager;
 
 	public Pruner(PruneData pruneData, ErrorHandler errorHandler) {
+		this(pruneData, errorHandler, true, new WorkerPool(pruneData.execution()), new Metrics(), "");
+	}
+
+	// prunes a dimension on workers that are shared with other dimensions. phases are reported with the name of the
+	// dimension as a prefix.
+	Pruner(PruneData pruneData, ErrorHandler errorHandler, WorkerPool workers, Metrics metrics, String dimension) {
+		this(pruneData, errorHandler, false, workers, metrics, dimension + "/");
+	}
+
+	private Pruner(PruneData pruneData, ErrorHandler errorHandler, boolean standalone, WorkerPool workers, Metrics metrics, String phasePrefix) {
 		this.pruneData = pruneData;
-		this.errorHandler = errorHandler;
-		this.radiusSquared = pruneData.radius() * pruneData.radius();
-		this.structureManager = new StructureManager(this, errorHandler);
+		this.errorHandler = new SynchronizedErrorHandler(errorHandler);
+		this.standalone = standalone;
+		this.workers = workers;
+		this.ioPermits = workers.ioPermits();
+		this.metrics = metrics;
+		this.phases = metrics.phases(phasePrefix);
+		this.staging = new Staging(pruneData.regionDir().getParentFile());
+		this.scanIndex = pruneData.execution().scanIndex() ? new ScanIndex(pruneData.regionDir().getParentFile()) : null;
+		this.regionReaders = ThreadLocal.withInitial(() -> new RegionReader(pruneData.execution().mmap()));
+		this.checkpoint = new Checkpoint(pruneData.regionDir().getParentFile(), pruneData);
+		this.structureManager = new StructureManager(this, this.errorHandler);
 		LOGGER.info("Initialized Pruner with data {}", pruneData);
 	}
 
-	private MCAFile loadMCAFile(File file) throws IOException {
+	static MCAFile loadMCAFile(File file) throws IOException {
 		MCAFile mcaFile = new MCAFile(file);
 		try (MCAFileHandle handle = new MCAFileHandle(
 				file.getParentFile(),
@@ -61,21 +129,11 @@ public class Pruner {
 		return mcaFile;
 	}
 
-	public boolean skipChunk(Chunk chunk) {
-		if (chunk == null || chunk.isEmpty()) {
-			return true;
-		}
-
-		if (pruneData.whitelistOnly() && selection.isChunkSelected(chunk.getX(), chunk.getZ())) {
+	public boolean skipChunk(ChunkSummary chunk) {
+		if (pruneData.whitelistOnly() && whitelist.isChunkSelected(chunk.x(), chunk.z())) {
 			return true;
 		}
-
-		if (chunk.getData().contains("Level", Tag.COMPOUND)) {
-			CompoundTag level = chunk.getData().getCompound("Level");
-			return level.getLongOrDefault("InhabitedTime", Long.MAX_VALUE) > pruneData.inhabitedTime();
-		} else {
-			return chunk.getData().getLongOrDefault("InhabitedTime", Long.MAX_VALUE) > pruneData.inhabitedTime();
-		}
+		return chunk.inhabitedTime() > pruneData.inhabitedTime();
 	}
 
 	private void loadAllFiles() {
@@ -102,12 +160,13 @@ public class Pruner {
 		return regions;
 	}
 
-	private DeFragmentResult deFragment(File file, ChunkSet whitelist) throws IOException {
+	DeFragmentResult deFragment(File file, ChunkSet whitelist) throws IOException {
 
 		// if the file only contains the header or the whitelist is empty we delete it
 		if (file.length() <= 8192 || whitelist != null && whitelist.isEmpty()) {
-			if (file.delete()) {
+			if (deleteFile(file)) {
 				LOGGER.info("Deleted empty file {} with size {}", file, file.length());
+				metrics.filesDeleted.increment();
 			} else {
 				if (errorHandler.handle(LOGGER, "Failed to delete empty file {} with size {}", file, file.length())) {
 					return new DeFragmentResult(0, 0, true);
@@ -116,230 +175,1293 @@ public class Pruner {
 			return new DeFragmentResult(1024, 0, false);
 		}
 
-		File tempFile = File.createTempFile(file.getName(), null, null);
-
-		int globalOffset = 2; // chunk data starts at 8192 (after 2 sectors)
-		int skippedChunks = 0;
-		int deletedChunks = 0;
-
-		try (RandomAccessFile temp = new RandomAccessFile(tempFile, "rw");
-			 RandomAccessFile source = new RandomAccessFile(file, "r")) {
+		if (pruneData.execution().inPlace()) {
+			return deFragmentInPlace(file, whitelist);
+		}
+		return deFragmentCopy(file, whitelist);
+	}
 
-			for (short i = 0; i < 1024; i++) {
-				// read chunk data from source
-				source.seek(i * 4);
+	// writes the compacted file to the staging directory
+	private DeFragmentResult deFragmentCopy(File file, ChunkSet whitelist) throws IOException {
+		File tempFile = staging.createFile(file);
 
-				int offset = source.read() << 16;
-				offset |= (source.read() & 0xFF) << 8;
-				offset |= source.read() & 0xFF;
+		CompactionPlan plan;
+		try {
+			plan = writeCompacted(file, tempFile, whitelist);
+		} catch (IOException ex) {
+			if (!tempFile.delete()) {
+				LOGGER.warn("Failed to delete temp file {} with size {}", tempFile, tempFile.length());
+			}
+			throw ex;
+		}
 
-				int sectors = source.read();
-				if (offset == 0 || sectors <= 0) {
-					skippedChunks++;
-					continue;
+		// if we skipped all chunks, we just delete the entire mca file
+		if (plan.isEmpty()) {
+			if (tempFile.exists()) {
+				if (!tempFile.delete()) {
+					LOGGER.warn("Failed to delete temp file {} with size {}", tempFile, tempFile.length());
 				}
+			}
+			return deleteEmptyFile(file, plan);
+		}
+		// the file is replaced once the staged files are committed in deFragmentDir
+		staging.add(tempFile, file);
+		recordRewrite(plan, plan.sectors());
+		return new DeFragmentResult(plan.skippedChunks(), plan.deletedChunks(), false);
+	}
 
-				if (whitelist != null && !whitelist.get(i)) {
-					deletedChunks++;
-					continue;
-				}
+	private CompactionPlan writeCompacted(File file, File tempFile, ChunkSet whitelist) throws IOException {
+		CompactionPlan plan;
+		try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			 FileChannel temp = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
 
-				source.seek(4096L + i * 4);
-				int timestamp = source.readInt();
+			plan = CompactionPlan.create(readHeader(source), whitelist);
 
-				source.seek(4096L * offset);
-				int dataLength = sectors * 4096;
-				BufferedInputStream dis = new BufferedInputStream(new FileInputStream(source.getFD()), dataLength);
-				byte[] data = new byte[dataLength];
-				dis.read(data);
+			for (int run = 0; run < plan.runCount(); run++) {
+				transferSectors(source, plan.runSource(run), plan.runSectors(run), temp, plan.runTarget(run));
+			}
 
-				// white chunk data to temp
-				temp.seek(i * 4L);
-				temp.write(globalOffset >>> 16);
-				temp.write(globalOffset >> 8 & 0xFF);
-				temp.write(globalOffset & 0xFF);
+			ioPermits.acquireUninterruptibly();
+			try {
+				// chunk data always occupies full sectors, even if the source file was truncated
+				if (temp.size() < plan.sectors() * 4096L) {
+					temp.write(ByteBuffer.allocate(1), plan.sectors() * 4096L - 1);
+				}
+				temp.position(0);
+				ByteBuffer[] newHeader = plan.header();
+				while (newHeader[1].hasRemaining()) {
+					temp.write(newHeader);
+				}
+				// the staged file has to be on disk before it replaces the original file
+				temp.force(true);
+			} finally {
+				ioPermits.release();
+			}
+		}
+		return plan;
+	}
 
-				temp.write(sectors);
+	// compacts a file without a temporary copy, see InPlaceCompactor
+	private DeFragmentResult deFragmentInPlace(File file, ChunkSet whitelist) throws IOException {
+		CompactionPlan plan;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			plan = CompactionPlan.create(readHeader(channel), whitelist);
+			if (!plan.isEmpty() && plan.canCompactInPlace()) {
+				LOGGER.info("Compacting {} with size {} in place", file, file.length());
+				new InPlaceCompactor(ioPermits, metrics.bytesRead).compact(file.toPath(), channel, plan);
+			}
+		}
+		if (plan.isEmpty()) {
+			return deleteEmptyFile(file, plan);
+		}
+		if (!plan.canCompactInPlace()) {
+			LOGGER.warn("Chunks in the header of {} overlap or point into the header, compacting a copy instead", file);
+			return deFragmentCopy(file, whitelist);
+		}
+		int moved = 0;
+		for (int run = 0; run < plan.runCount(); run++) {
+			if (plan.runSource(run) != plan.runTarget(run)) {
+				moved += plan.runSectors(run);
+			}
+		}
+		recordRewrite(plan, moved + 2);
+		return new DeFragmentResult(plan.skippedChunks(), plan.deletedChunks(), false);
+	}
 
-				temp.seek(4096 + i * 4L);
-				temp.writeInt(timestamp);
+	// sectors is the number of sectors that were written, including the header
+	private void recordRewrite(CompactionPlan plan, int sectors) {
+		metrics.filesRewritten.increment();
+		metrics.bytesWritten.add(sectors * 4096L);
+		metrics.chunksKept.add(1024 - plan.skippedChunks() - plan.deletedChunks());
+		metrics.chunksDeleted.add(plan.deletedChunks());
+	}
 
-				temp.seek(globalOffset * 4096L);
-				BufferedOutputStream dos = new BufferedOutputStream(new FileOutputStream(temp.getFD()), dataLength);
-				dos.write(data);
-				globalOffset += sectors;
+	private DeFragmentResult deleteEmptyFile(File file, CompactionPlan plan) {
+		if (deleteFile(file)) {
+			LOGGER.info("Deleted {} with size {} because it is empty", file, file.length());
+			metrics.filesDeleted.increment();
+			metrics.chunksDeleted.add(plan.deletedChunks());
+		} else {
+			if (errorHandler.handle(LOGGER, "Failed to delete {} with size {} when all chunks were pruned", file, file.length())) {
+				return new DeFragmentResult(plan.skippedChunks(), plan.deletedChunks(), true);
 			}
 		}
+		return new DeFragmentResult(plan.skippedChunks(), plan.deletedChunks(), false);
+	}
 
-		// if we skipped all chunks, we just delete the entire mca file
-		if (skippedChunks == 1024) {
-			if (tempFile.exists()) {
-				if (!tempFile.delete()) {
-					LOGGER.warn("Failed to delete temp file {} with size {}", tempFile, tempFile.length());
+	private ByteBuffer readHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(8192);
+		ioPermits.acquireUninterruptibly();
+		try {
+			readFully(channel, header, 0);
+		} finally {
+			ioPermits.release();
+		}
+		metrics.bytesRead.add(header.remaining());
+		return header;
+	}
+
+	// finishes compactions that were interrupted by a previous run, before any of the files are read
+	private boolean recoverInterruptedCompactions() {
+		InPlaceCompactor compactor = new InPlaceCompactor(ioPermits, metrics.bytesRead);
+		for (File dir : new File[]{pruneData.regionDir(), pruneData.poiDir(), pruneData.entitiesDir()}) {
+			File[] journals;
+			if (dir == null || (journals = dir.listFiles(InPlaceCompactor::isJournal)) == null) {
+				continue;
+			}
+			for (File journal : journals) {
+				try {
+					compactor.recover(journal.toPath());
+				} catch (IOException ex) {
+					if (errorHandler.handle(LOGGER, ex, "Failed to recover interrupted compaction from {}", journal)) {
+						return false;
+					}
 				}
 			}
-			if (file.delete()) {
-				LOGGER.info("Deleted {} with size {} because it is empty", file, file.length());
-			} else {
-				if (errorHandler.handle(LOGGER, "Failed to delete {} with size {} when all chunks were pruned", file, file.length())) {
-					return new DeFragmentResult(skippedChunks, deletedChunks, true);
+		}
+		return true;
+	}
+
+	static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+		while (dst.hasRemaining()) {
+			int read = channel.read(dst, position + dst.position());
+			if (read < 0) {
+				throw new EOFException("unexpected end of file " + channel);
+			}
+		}
+		dst.flip();
+	}
+
+	private void transferSectors(FileChannel source, int sourceOffset, int sectors, FileChannel target, int targetOffset) throws IOException {
+		long position = sourceOffset * 4096L;
+		long remaining = sectors * 4096L;
+		ioPermits.acquireUninterruptibly();
+		try {
+			target.position(targetOffset * 4096L);
+			while (remaining > 0) {
+				long transferred = source.transferTo(position, remaining, target);
+				if (transferred <= 0) {
+					// the source file is shorter than its header claims, the missing data is padded later
+					break;
 				}
+				position += transferred;
+				remaining -= transferred;
+				metrics.bytesRead.add(transferred);
 			}
-		} else {
-			LOGGER.info("Overwriting {} with size {} with temp file {} with size {}", file, file.length(), tempFile, tempFile.length());
-			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			ioPermits.release();
+		}
+	}
+
+	private void commitFile(Staging.StagedFile file) throws IOException {
+		ioPermits.acquireUninterruptibly();
+		try {
+			Staging.commit(file);
+		} finally {
+			ioPermits.release();
+		}
+	}
+
+	private boolean deleteFile(File file) {
+		ioPermits.acquireUninterruptibly();
+		try {
+			return file.delete();
+		} finally {
+			ioPermits.release();
 		}
-		return new DeFragmentResult(skippedChunks, deletedChunks, false);
 	}
 
 	record DeFragmentResult(int skippedChunks, int deletedChunks, boolean error) {}
 
-	private File toFile(File parent, Point p) {
+	static File toFile(File parent, Point p) {
 		return new File(parent, String.format("r.%d.%d.mca", p.x(), p.z()));
 	}
 
+	// prunes the world and writes the report and flight recording if they were requested, even if pruning was aborted
 	public void prune(Progress progress) {
+		if (!standalone) {
+			pruneDimension(progress);
+			return;
+		}
+		Recording recording = startRecording(pruneData.execution().jfr());
+		try {
+			pruneDimension(progress);
+		} finally {
+			workers.close();
+			writeReport(pruneData.execution().report(), metrics, errorHandler.wasSuccessful());
+			stopRecording(recording);
+		}
+	}
+
+	private void pruneDimension(Progress progress) {
+		try {
+			pruneWorld(progress);
+		} finally {
+			checkpoint.close();
+			phases.phase(null);
+		}
+	}
+
+	// records the events in PruneEvents along with the JVM events of the default JFR configuration
+	static Recording startRecording(File jfr) {
+		if (jfr == null) {
+			return null;
+		}
+		try {
+			Recording recording = new Recording(Configuration.getConfiguration("default"));
+			recording.setName("WorldPruner");
+			recording.setToDisk(true);
+			recording.setDestination(jfr.toPath());
+			recording.start();
+			LOGGER.info("Started flight recording to {}", jfr);
+			return recording;
+		} catch (IOException | ParseException ex) {
+			LOGGER.warn("Failed to start flight recording to {}", jfr, ex);
+			return null;
+		}
+	}
+
+	// stopping the recording writes it to its destination
+	static void stopRecording(Recording recording) {
+		if (recording == null) {
+			return;
+		}
+		try {
+			recording.stop();
+			LOGGER.info("Wrote flight recording to {}", recording.getDestination());
+		} catch (IllegalStateException ex) {
+			LOGGER.warn("Failed to write flight recording to {}", recording.getDestination(), ex);
+		} finally {
+			recording.close();
+		}
+	}
+
+	static void writeReport(File report, Metrics metrics, boolean success) {
+		if (report == null) {
+			return;
+		}
+		try (Writer writer = new FileWriter(report, StandardCharsets.UTF_8)) {
+			writer.write(metrics.toJson(success));
+			LOGGER.info("Wrote report to {}", report);
+		} catch (IOException ex) {
+			LOGGER.warn("Failed to write report to {}", report, ex);
+		}
+	}
+
+	private void pruneWorld(Progress progress) {
 		// we start with the selection being the whitelist
-		this.selection = pruneData.whitelist();
+		this.whitelist = pruneData.whitelist();
+		this.selection = whitelist.copy();
 
 		progress.setIndeterminate(true);
+		progress.setMessage("Recovering interrupted compactions");
+		phases.phase("recover");
+		if (!recoverInterruptedCompactions()) {
+			progress.done();
+			return;
+		}
+
+		try {
+			staging.cleanup();
+		} catch (IOException ex) {
+			if (errorHandler.handle(LOGGER, ex, "Failed to clean up staging directory")) {
+				progress.done();
+				return;
+			}
+		}
+
 		progress.setMessage("Indexing files");
+		phases.phase("index");
 		loadAllFiles();
+		if (scanIndex != null) {
+			scanIndex.removeStale(allRegionFiles);
+		}
+		resumed = loadCheckpoint();
 
-		progress.setIndeterminate(false);
-		progress.setMinimum(0);
-		progress.setMaximum(allRegionFiles.size());
+		if (pruneData.execution().tileSize() > 0) {
+			pruneTiled(progress);
+			return;
+		}
+		// a checkpoint of a run that was not pipelined is resumed as usual
+		if (resumed == null && pruneData.execution().pipeline()) {
+			prunePipelined(progress);
+			return;
+		}
 
-		// collect all chunks that need to be kept based on InhabitedTime
-		for (long f : allRegionFiles) {
-			if (pruneData.whitelistOnly() && !selection.isAnyChunkInRegionSelected(f)) {
-				continue;
+		if (resumed != null) {
+			LOGGER.info("Skipping scan, using the selection of the checkpoint");
+			selection = resumed.selection();
+		} else {
+			progress.setIndeterminate(false);
+			progress.setMessage("Scanning files");
+			phases.phase("scan");
+
+			if (!collectChunks(allRegionFiles, null, progress)) {
+				progress.done();
+				return;
 			}
 
-			Timer t = new Timer();
-			Point region = new Point(f);
-			File regionFile = toFile(pruneData.regionDir(), region);
+			progress.setIndeterminate(true);
+			progress.setMessage("Collecting structures");
+			phases.phase("structures");
+			resolveMissingStructures();
+			selection.merge(structureManager.calculateChunksToKeep());
+			startCheckpoint(selection);
+		}
+
+		LOGGER.info(selection.getStats());
+
+		if (!deFragmentAll(allRegionFiles, allPoiFiles, allEntityFiles, progress)) {
+			return;
+		}
 
-			// if the file is empty or only its header exists, we skip it
-			if (regionFile.exists() && regionFile.length() <= 8192) {
-				LOGGER.info("Skipped empty mca file {} with size {}", regionFile, regionFile.length());
+		checkpoint.delete();
+		staging.deleteIfEmpty();
+		progress.done();
+	}
+
+	// returns the checkpoint to resume from, or null if the run starts from the beginning
+	private Checkpoint.State loadCheckpoint() {
+		if (!pruneData.execution().resume()) {
+			checkpoint.delete();
+			return null;
+		}
+		Checkpoint.State state = checkpoint.load();
+		if (state == null) {
+			LOGGER.info("No checkpoint to resume from, starting from the beginning");
+			return null;
+		}
+		try {
+			checkpoint.resume();
+		} catch (IOException ex) {
+			LOGGER.warn("Failed to continue checkpoint, this run can't be resumed", ex);
+		}
+		LOGGER.info("Resuming from checkpoint with {} completed files and tiles", state.completedCount());
+		return state;
+	}
+
+	// selection is null when pruning in tiles
+	private void startCheckpoint(Selection selection) {
+		Timer t = new Timer();
+		try {
+			checkpoint.start(selection);
+			LOGGER.info("Took {} to write checkpoint", t);
+		} catch (IOException ex) {
+			LOGGER.warn("Failed to write checkpoint, this run can't be resumed", ex);
+		}
+	}
+
+	private void recordCompleted(int kind, LongCollection keys) {
+		try {
+			checkpoint.complete(kind, keys);
+		} catch (IOException ex) {
+			LOGGER.warn("Failed to update checkpoint", ex);
+		}
+	}
+
+	// removes all chunks that need to be deleted. returns false if pruning was aborted.
+	private boolean deFragmentAll(LongOpenHashSet regionFiles, LongOpenHashSet poiFiles, LongOpenHashSet entityFiles, Progress progress) {
+		DeFragmentResult result;
+		if ((result = deFragmentDir(pruneData.regionDir(), Checkpoint.REGION, regionFiles, progress)).error()) {
+			return false;
+		}
+		LOGGER.info("DeFragmented files in {} with result {}", pruneData.regionDir(), result);
+
+		if ((result = deFragmentDir(pruneData.poiDir(), Checkpoint.POI, poiFiles, progress)).error()) {
+			return false;
+		}
+		LOGGER.info("DeFragmented files in {} with result {}", pruneData.poiDir(), result);
+
+		if ((result = deFragmentDir(pruneData.entitiesDir(), Checkpoint.ENTITIES, entityFiles, progress)).error()) {
+			return false;
+		}
+		LOGGER.info("DeFragmented files in {} with result {}", pruneData.entitiesDir(), result);
+		return true;
+	}
+
+	// the number of regions around a region whose chunks can cause chunks in it to be kept. the halo covers the radius
+	// around kept chunks and structures: a structure is kept because of a chunk inside its bounding boxes, so all chunks
+	// that can cause a structure to be kept in a region are at most twice the structure extent away from it.
+	private int halo() {
+		return (Math.max(pruneData.radius(), 2 * MAX_STRUCTURE_EXTENT) + 31) >> 5;
+	}
+
+	// sorts regions or tiles row by row
+	private static void sortRowByRow(long[] points) {
+		LongArrays.quickSort(points, (a, b) -> {
+			Point pa = new Point(a);
+			Point pb = new Point(b);
+			return pa.z() != pb.z() ? Integer.compare(pa.z(), pb.z()) : Integer.compare(pa.x(), pb.x());
+		});
+	}
+
+	// prunes the world in square tiles of regions, so only the selection and structures of a single tile and the
+	// regions around it are in memory at the same time.
+	// a chunk can be kept because of a chunk in another region, so the regions within the halo around the tile are
+	// scanned as well. scan results of the previous tile are reused for the overlapping regions.
+	// regions in the halo of a tile can already be pruned by a previous tile. this does not change the result, because
+	// chunks with structure starts or references of kept structures are kept, and so are all chunks they depend on.
+	private void pruneTiled(Progress progress) {
+		int tileSize = pruneData.execution().tileSize();
+		int halo = halo();
+
+		LongOpenHashSet tileSet = new LongOpenHashSet();
+		for (LongOpenHashSet files : List.of(allRegionFiles, allPoiFiles, allEntityFiles)) {
+			for (long f : files) {
+				Point region = new Point(f);
+				tileSet.add(new Point(Math.floorDiv(region.x(), tileSize), Math.floorDiv(region.z(), tileSize)).asLong());
+			}
+		}
+		// process tiles row by row, so consecutive tiles share as many halo regions as possible
+		long[] tiles = tileSet.toLongArray();
+		sortRowByRow(tiles);
+		LOGGER.info("Pruning {} tiles of {}x{} regions with a halo of {} regions", tiles.length, tileSize, tileSize, halo);
+		if (resumed == null) {
+			startCheckpoint(null);
+		}
+
+		Long2ObjectOpenHashMap<ScanResult> previous = new Long2ObjectOpenHashMap<>();
+		for (int i = 0; i < tiles.length; i++) {
+			if (resumed != null && resumed.isCompleted(Checkpoint.TILE, tiles[i])) {
+				LOGGER.info("Skipping tile {} of {}, it was completed before", i + 1, tiles.length);
+				previous = new Long2ObjectOpenHashMap<>();
 				continue;
 			}
+			Timer t = new Timer();
+			Point min = new Point(tiles[i]).mul(tileSize);
+			Point max = min.add(tileSize - 1);
+			LongOpenHashSet regionFiles = filesInArea(allRegionFiles, min, max);
+			LongOpenHashSet poiFiles = filesInArea(allPoiFiles, min, max);
+			LongOpenHashSet entityFiles = filesInArea(allEntityFiles, min, max);
+			LongOpenHashSet scanArea = filesInArea(allRegionFiles, min.sub(halo), max.add(halo));
 
-			MCAFile mcaFile;
-			try {
-				mcaFile = loadMCAFile(regionFile);
-			} catch (IOException ex) {
-				if (errorHandler.handle(LOGGER, ex, "Failed to load mca file {}", regionFile)) {
-					progress.done();
-					return;
+			Long2ObjectOpenHashMap<ScanResult> results = new Long2ObjectOpenHashMap<>();
+			for (long f : scanArea) {
+				ScanResult result = previous.get(f);
+				if (result != null) {
+					results.put(f, result);
 				}
-				progress.increment(1);
-				selection.addRegion(f);
-				continue;
 			}
+			previous = null;
 
-			for (Chunk chunk : mcaFile) {
-				if (chunk != null) {
-					structureManager.checkChunk(chunk);
-					// check InhabitedTime with radius
-					if (!pruneData.whitelistOnly() && skipChunk(chunk)) {
-						Point point = new Point(chunk.getX(), chunk.getZ());
-						selection.addChunk(point);
-						applyRadius(point);
-					}
+			LongOpenHashSet tileRegions = new LongOpenHashSet(regionFiles);
+			tileRegions.addAll(poiFiles);
+			tileRegions.addAll(entityFiles);
+			selection = whitelist.copy(tileRegions);
+			structureManager = new StructureManager(this, errorHandler);
+
+			progress.setIndeterminate(false);
+			progress.setMessage(String.format("Scanning tile %d of %d", i + 1, tiles.length));
+			phases.phase("scan");
+			if (!collectChunks(scanArea, results, progress)) {
+				progress.done();
+				return;
+			}
+			phases.phase("structures");
+			resolveMissingStructures();
+			selection.merge(structureManager.calculateChunksToKeep(true));
+
+			if (!deFragmentAll(regionFiles, poiFiles, entityFiles, progress)) {
+				return;
+			}
+			LOGGER.info("Took {} to prune tile {} of {} from {} to {}", t, i + 1, tiles.length, min, max);
+			recordCompleted(Checkpoint.TILE, LongList.of(tiles[i]));
+			previous = results;
+		}
+
+		checkpoint.delete();
+		staging.deleteIfEmpty();
+		progress.done();
+	}
+
+	// returns all files with region coordinates from min to max (inclusive)
+	private static LongOpenHashSet filesInArea(LongOpenHashSet files, Point min, Point max) {
+		LongOpenHashSet result = new LongOpenHashSet();
+		for (int x = min.x(); x <= max.x(); x++) {
+			for (int z = min.z(); z <= max.z(); z++) {
+				long region = new Point(x, z).asLong();
+				if (files.contains(region)) {
+					result.add(region);
 				}
 			}
+		}
+		return result;
+	}
 
-			LOGGER.info("Took {} to collect chunks in {}", t, regionFile);
-			progress.increment(1);
+	// scans and compacts the world at the same time, so the total time approaches the longer of both phases instead of
+	// their sum. which chunks are kept in a region only depends on the regions within its halo, so the region is final
+	// once all of them have been scanned and the missing starts of structures that can reach into it have been looked
+	// up. its files are then compacted right away while the rest of the world is still being scanned.
+	// regions are scanned row by row, so the halo of a region is complete shortly after the region itself is scanned.
+	// the selection is never complete, so no checkpoint is written. instead, the start chunks of kept structures are
+	// kept like when pruning in tiles, so an interrupted run can simply be started again.
+	private void prunePipelined(Progress progress) {
+		int halo = halo();
+		LongArrayList toScan = new LongArrayList();
+		for (long f : allRegionFiles) {
+			// regions without whitelisted chunks can't keep any chunks in whitelist only mode
+			if (!pruneData.whitelistOnly() || whitelist.isAnyChunkInRegionSelected(f)) {
+				toScan.add(f);
+			}
 		}
+		long[] regions = toScan.toLongArray();
+		sortRowByRow(regions);
 
-		LongOpenHashSet chunksToKeep = structureManager.calculateChunksToKeep();
-		selection.addAll(chunksToKeep);
+		LongOpenHashSet targets = new LongOpenHashSet(allRegionFiles);
+		targets.addAll(allPoiFiles);
+		targets.addAll(allEntityFiles);
+		// the number of regions within the halo of each region that have not been scanned yet
+		Long2IntOpenHashMap pending = new Long2IntOpenHashMap(targets.size());
+		for (long f : regions) {
+			for (long t : aroundRegion(targets, f, halo)) {
+				pending.addTo(t, 1);
+			}
+		}
+		LongArrayList ready = new LongArrayList();
+		for (long t : targets) {
+			if (!pending.containsKey(t)) {
+				ready.add(t);
+			}
+		}
+		LOGGER.info("Pipelining the scan of {} regions and the compaction of {} regions with a halo of {} regions", regions.length, targets.size(), halo);
 
-		LOGGER.info(selection.getStats());
+		progress.setMinimum(0);
+		progress.setMaximum(regions.length + allRegionFiles.size() + allPoiFiles.size() + allEntityFiles.size());
+		progress.setValue(0);
+		progress.setIndeterminate(false);
+		progress.setMessage("Scanning and compacting files");
+		phases.phase("pipeline");
 
-		// remove all chunks that need to be deleted
-		DeFragmentResult result;
-		if ((result = deFragmentDir(pruneData.regionDir(), allRegionFiles, progress)).error()) {
+		int skippedChunks = 0;
+		int deletedChunks = 0;
+		LongOpenHashSet finalized = new LongOpenHashSet(targets.size());
+		LongOpenHashSet lookedUp = new LongOpenHashSet();
+		AtomicBoolean aborted = new AtomicBoolean(false);
+		List<Future<PipelineResult>> scans = new ArrayList<>();
+		List<Future<PipelineResult>> compactions = new ArrayList<>();
+		Prefetcher prefetcher = null;
+		try {
+			if (workers.prefetchBytes() > 0) {
+				long[] sizes = new long[regions.length];
+				for (int i = 0; i < regions.length; i++) {
+					sizes[i] = toFile(pruneData.regionDir(), new Point(regions[i])).length();
+				}
+				prefetcher = startPrefetcher(regions, sizes);
+			}
+
+			// scans and compactions complete into the same queue. all jobs have the same priority, so they are started
+			// in the order they are submitted.
+			WorkerPool.Jobs<PipelineResult> jobs = new WorkerPool.Jobs<>(workers.scan());
+			Prefetcher p = prefetcher;
+			for (long f : regions) {
+				scans.add(jobs.submit(0, () -> new PipelineResult(scanRegion(f, p), null)));
+			}
+			int running = regions.length;
+
+			while (true) {
+				for (long f : ready) {
+					lookUpStartsAround(f, finalized, lookedUp);
+					structureManager.addResolvedChunks(selection);
+					finalized.add(f);
+					running += submitCompactions(f, jobs, compactions, aborted, progress);
+				}
+				ready.clear();
+				if (running == 0) {
+					break;
+				}
+
+				PipelineResult result = takeResult(jobs);
+				running--;
+				if (result.scan() != null) {
+					ScanResult scan = result.scan();
+					if (scan.error() != null) {
+						if (errorHandler.handle(LOGGER, scan.error(), "Failed to load mca file {}", scan.file())) {
+							aborted.set(true);
+							progress.done();
+							return;
+						}
+						selection.addRegion(scan.region());
+					} else if (scan.selection() != null) {
+						// the union of the dilated selections of all regions is the dilation of their union
+						selection.merge(Dilation.dilate(scan.selection(), pruneData.radius()));
+						structureManager.merge(scan.structures());
+						structureManager.addResolvedChunks(selection);
+					}
+					for (long t : aroundRegion(targets, scan.region(), halo)) {
+						if (pending.addTo(t, -1) == 1) {
+							ready.add(t);
+						}
+					}
+				} else {
+					DeFragmentResult compaction = result.compaction();
+					skippedChunks += compaction.skippedChunks();
+					deletedChunks += compaction.deletedChunks();
+					// no checkpoint is written, so it doesn't matter as what kind the files are committed
+					if (compaction.error() || (staging.pendingCount() >= STAGING_BATCH_SIZE || finishedCount() >= STAGING_BATCH_SIZE) && !commitStagedFiles(Checkpoint.REGION)) {
+						aborted.set(true);
+						progress.done();
+						return;
+					}
+				}
+				progress.increment(1);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			aborted.set(true);
+			errorHandler.handle(LOGGER, ex, "Interrupted while pruning files");
+			progress.done();
 			return;
+		} finally {
+			// scans are only left if we abort, while files that are currently being rewritten are finished
+			for (Future<PipelineResult> future : scans) {
+				future.cancel(true);
+			}
+			if (prefetcher != null) {
+				prefetcher.close();
+			}
+			awaitAll(compactions);
+			if (aborted.get()) {
+				commitStagedFiles(Checkpoint.REGION);
+			}
 		}
-		LOGGER.info("DeFragmented files in {} with result {}", pruneData.regionDir(), result);
-
-		if ((result = deFragmentDir(pruneData.poiDir(), allPoiFiles, progress)).error()) {
+		if (!commitStagedFiles(Checkpoint.REGION)) {
+			progress.done();
 			return;
 		}
-		LOGGER.info("DeFragmented files in {} with result {}", pruneData.poiDir(), result);
 
-		if ((result = deFragmentDir(pruneData.entitiesDir(), allEntityFiles, progress)).error()) {
+		metrics.structuresKept.add(structureManager.getKeptCount());
+		metrics.structuresMissing.add(structureManager.getMissingCount());
+		LOGGER.info(selection.getStats());
+		LOGGER.info("Pruned files with {} skipped and {} deleted chunks", skippedChunks, deletedChunks);
+		staging.deleteIfEmpty();
+		progress.done();
+	}
+
+	// returns all files within the halo around a region, including the region itself
+	private static LongOpenHashSet aroundRegion(LongOpenHashSet files, long region, int halo) {
+		Point p = new Point(region);
+		return filesInArea(files, p.sub(halo), p.add(halo));
+	}
+
+	// looks up the missing starts of structures that can reach into a region before the region is compacted.
+	// starts in regions that have been compacted already are skipped. all structures that reference them were known when
+	// their region was compacted, so they have been looked up before.
+	private void lookUpStartsAround(long f, LongOpenHashSet finalized, LongOpenHashSet lookedUp) {
+		if (structureManager.getMissingCount() == 0) {
 			return;
 		}
-		LOGGER.info("DeFragmented files in {} with result {}", pruneData.entitiesDir(), result);
+		int extent = (MAX_STRUCTURE_EXTENT + 31) >> 5;
+		Point region = new Point(f);
+		LongArrayList chunks = new LongArrayList();
+		for (long chunk : structureManager.getMissingStarts()) {
+			Point start = new Point(chunk).chunkToRegion();
+			if (Math.abs(start.x() - region.x()) <= extent && Math.abs(start.z() - region.z()) <= extent
+					&& !finalized.contains(start.asLong()) && lookedUp.add(chunk)) {
+				chunks.add(chunk);
+			}
+		}
+		if (!chunks.isEmpty()) {
+			lookUpStarts(chunks);
+		}
+	}
 
-		progress.done();
+	// submits the compaction of the files of a region whose selection is final and returns the number of submitted jobs
+	private int submitCompactions(long f, WorkerPool.Jobs<PipelineResult> jobs, List<Future<PipelineResult>> futures, AtomicBoolean aborted, Progress progress) {
+		File[] dirs = {pruneData.regionDir(), pruneData.poiDir(), pruneData.entitiesDir()};
+		LongOpenHashSet[] files = {allRegionFiles, allPoiFiles, allEntityFiles};
+		Point region = new Point(f);
+		boolean keepAll = selection.isRegionSelected(f);
+		// a copy, the selection is still modified by the scan
+		ChunkSet selectedChunks = keepAll ? null : selection.getSelectedChunks(region);
+		int submitted = 0;
+		for (int i = 0; i < dirs.length; i++) {
+			if (!files[i].contains(f)) {
+				continue;
+			}
+			if (keepAll) {
+				metrics.filesKept.increment();
+				progress.increment(1);
+				continue;
+			}
+			File file = toFile(dirs[i], region);
+			futures.add(jobs.submit(workers.compact(), 0, () -> new PipelineResult(null,
+					aborted.get() ? new DeFragmentResult(0, 0, true) : deFragmentJob(file, region, selectedChunks))));
+			submitted++;
+		}
+		return submitted;
 	}
 
-	private DeFragmentResult deFragmentDir(File dir, LongOpenHashSet regions, Progress progress) {
+	// rewrites all files in a directory concurrently. the number of files that are processed at the same time is
+	// limited by ExecutionOptions#compactThreads, while the number of file operations that are in flight at the same
+	// time is separately limited by ExecutionOptions#ioLimit (see ioPermits).
+	// regions that have been completed by the run that is resumed are skipped, and completed regions are recorded in the
+	// checkpoint once their files are committed.
+	// files are rewritten in the order of the Workload.
+	private DeFragmentResult deFragmentDir(File dir, int kind, LongOpenHashSet regions, Progress progress) {
 		if (dir == null) {
 			return new DeFragmentResult(0, 0, false);
 		}
 
+		Workload work = Workload.of(regions, dir, pruneData.execution().ioOrder());
 		progress.setMinimum(0);
-		progress.setMaximum(regions.size());
+		progress.setMaximum(work.totalWeight());
 		progress.setValue(0);
 		progress.setIndeterminate(false);
 		progress.setMessage("DeFragmenting files in " + dir.getName());
+		phases.phase("compact " + dir.getName());
 
 		int skippedChunks = 0;
 		int deletedChunks = 0;
 
-		for (long f : regions) {
-			if (selection.isRegionSelected(f)) {
-				skippedChunks += 1024;
-				progress.increment(1);
-				continue;
-			}
-
-			Point region = new Point(f);
-			File regionFile = toFile(dir, region);
+		AtomicBoolean aborted = new AtomicBoolean(false);
+		List<Future<WeightedResult<DeFragmentResult>>> futures = new ArrayList<>();
+		try {
+			WorkerPool.Jobs<WeightedResult<DeFragmentResult>> jobs = new WorkerPool.Jobs<>(workers.compact());
+			int submitted = 0;
+			for (int i = 0; i < work.count(); i++) {
+				long f = work.region(i);
+				int weight = work.weight(i);
+				if (resumed != null && resumed.isCompleted(kind, f)) {
+					progress.increment(weight);
+					continue;
+				}
+				if (selection.isRegionSelected(f)) {
+					metrics.filesKept.increment();
+					skippedChunks += 1024;
+					progress.increment(weight);
+					continue;
+				}
 
-			try {
+				Point region = new Point(f);
+				File regionFile = toFile(dir, region);
 				ChunkSet selectedChunks = selection.getSelectedChunks(region);
+				futures.add(jobs.submit(work.priority(i), () -> new WeightedResult<>(weight,
+						aborted.get() ? new DeFragmentResult(0, 0, true) : deFragmentJob(regionFile, region, selectedChunks))));
+				submitted++;
+			}
 
-				Timer t = new Timer();
-				DeFragmentResult result = deFragment(regionFile, selectedChunks);
+			for (int i = 0; i < submitted; i++) {
+				WeightedResult<DeFragmentResult> weighted = takeResult(jobs);
+				DeFragmentResult result = weighted.result();
 				skippedChunks += result.skippedChunks();
 				deletedChunks += result.deletedChunks();
-				if (result.error()) {
+				if (result.error() || (staging.pendingCount() >= STAGING_BATCH_SIZE || finishedCount() >= STAGING_BATCH_SIZE) && !commitStagedFiles(kind)) {
+					aborted.set(true);
 					progress.done();
 					return new DeFragmentResult(skippedChunks, deletedChunks, true);
 				}
+				progress.increment(weighted.weight());
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			aborted.set(true);
+			errorHandler.handle(LOGGER, ex, "Interrupted while deFragmenting files in {}", dir);
+			progress.done();
+			return new DeFragmentResult(skippedChunks, deletedChunks, true);
+		} finally {
+			// let files that are currently being rewritten finish instead of interrupting them halfway, jobs that did not
+			// start yet return right away if we aborted
+			awaitAll(futures);
+			// files that were completely rewritten are committed even if we abort
+			if (aborted.get()) {
+				commitStagedFiles(kind);
+			}
+		}
+		if (!commitStagedFiles(kind)) {
+			progress.done();
+			return new DeFragmentResult(skippedChunks, deletedChunks, true);
+		}
+		return new DeFragmentResult(skippedChunks, deletedChunks, false);
+	}
+
+	// files compacted in place are not staged, so they are recorded in the checkpoint in batches as well
+	private int finishedCount() {
+		synchronized (finished) {
+			return finished.size();
+		}
+	}
+
+	// replaces the original files with all files that have been staged so far.
+	// finished regions are taken before the staged files, because a region is added to them after its file is staged.
+	// so a region is only recorded as completed in the checkpoint once its file has been committed and forced to disk,
+	// together with the directory entries of renamed and deleted files.
+	private boolean commitStagedFiles(int kind) {
+		Timer t = new Timer();
+		LongArrayList completed;
+		synchronized (finished) {
+			completed = new LongArrayList(finished);
+			finished.clear();
+		}
+		List<Staging.StagedFile> files = staging.drain();
+		Set<File> dirs = new HashSet<>();
+		// files that were deleted because they were empty are only gone once their directory is forced
+		File kindDir = kindDir(kind);
+		if (kindDir != null && !completed.isEmpty()) {
+			dirs.add(kindDir);
+		}
+		boolean durable = true;
+		for (Staging.StagedFile file : files) {
+			PruneEvents.FileCommit event = new PruneEvents.FileCommit();
+			event.begin();
+			if (event.isEnabled()) {
+				event.file = file.target().getPath();
+				event.size = file.staged().length();
+			}
+			try {
+				commitFile(file);
+				dirs.add(file.target().getParentFile());
+				event.success = true;
+			} catch (IOException ex) {
+				if (errorHandler.handle(LOGGER, ex, "Failed to commit staged file {} to {}", file.staged(), file.target())) {
+					event.commit();
+					return false;
+				}
+				durable = false;
+			}
+			event.commit();
+		}
+		// the renames are only durable once the directories that contain them are written to disk
+		for (File dir : dirs) {
+			try {
+				Staging.forceDirectory(dir);
+			} catch (IOException ex) {
+				if (errorHandler.handle(LOGGER, ex, "Failed to write directory {} to disk", dir)) {
+					return false;
+				}
+				durable = false;
+			}
+		}
+		if (!files.isEmpty()) {
+			LOGGER.info("Took {} to commit {} staged files", t, files.size());
+		}
+		if (durable) {
+			recordCompleted(kind, completed);
+		} else {
+			LOGGER.warn("Not recording {} regions in the checkpoint, they are pruned again when resuming", completed.size());
+		}
+		return true;
+	}
+
+	private File kindDir(int kind) {
+		return switch (kind) {
+			case Checkpoint.REGION -> pruneData.regionDir();
+			case Checkpoint.POI -> pruneData.poiDir();
+			case Checkpoint.ENTITIES -> pruneData.entitiesDir();
+			default -> null;
+		};
+	}
+
+	private DeFragmentResult deFragmentJob(File regionFile, Point region, ChunkSet selectedChunks) {
+		PruneEvents.RegionCompaction event = new PruneEvents.RegionCompaction();
+		event.begin();
+		if (event.isEnabled()) {
+			event.directory = regionFile.getParentFile().getName();
+			event.regionX = region.x();
+			event.regionZ = region.z();
+			event.inPlace = pruneData.execution().inPlace();
+			event.size = regionFile.length();
+		}
+		DeFragmentResult result;
+		try {
+			Timer t = new Timer();
+			result = deFragment(regionFile, selectedChunks);
+			if (!result.error()) {
 				LOGGER.info("Took {} to prune chunks in {} with result {}", t, regionFile, result);
+				metrics.compactLatency.record(t.getNano() / 1000);
+				synchronized (finished) {
+					finished.add(region.asLong());
+				}
+			}
+		} catch (IOException ex) {
+			result = new DeFragmentResult(0, 0, errorHandler.handle(LOGGER, ex, "Failed to deFragment mca file {}", regionFile));
+			event.outcome = "failed";
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			if (result.error()) {
+				event.outcome = "failed";
+			} else if (event.outcome == null) {
+				event.outcome = regionFile.exists() ? "rewritten" : "deleted";
+			}
+			event.chunksKept = 1024 - result.skippedChunks() - result.deletedChunks();
+			event.chunksDeleted = result.deletedChunks();
+			event.commit();
+		}
+		return result;
+	}
+
+	private static void awaitAll(List<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			try {
+				while (true) {
+					try {
+						future.get(1, TimeUnit.MINUTES);
+						break;
+					} catch (TimeoutException ex) {
+						LOGGER.info("Waiting for {} to finish", future);
+					}
+				}
+			} catch (ExecutionException | CancellationException ignored) {
+				// the error has already been handled or we are aborting
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	// collect all chunks that need to be kept based on InhabitedTime.
+	// regions are scanned concurrently, each worker collecting its results into its own Selection and
+	// StructureManager, which are then merged on this thread so the result does not depend on the order of completion.
+	// the selections of the workers only contain the chunks that are kept because of their InhabitedTime. the radius
+	// around them is added in a single dilation once all regions have been scanned.
+	// if results is not null, results that it already contains are reused and new results are added to it.
+	// regions are scanned in the order of the Workload.
+	private boolean collectChunks(LongCollection regions, Long2ObjectMap<ScanResult> results, Progress progress) {
+		Workload work = Workload.of(regions, pruneData.regionDir(), pruneData.execution().ioOrder());
+		progress.setMinimum(0);
+		progress.setMaximum(work.totalWeight());
+		progress.setValue(0);
+
+		Selection seeds = new Selection();
+		List<Future<WeightedResult<ScanResult>>> futures = new ArrayList<>();
+		Prefetcher prefetcher = null;
+		try {
+			IntArrayList toScan = new IntArrayList();
+			for (int i = 0; i < work.count(); i++) {
+				long f = work.region(i);
+				int weight = work.weight(i);
+				if (pruneData.whitelistOnly() && !whitelist.isAnyChunkInRegionSelected(f)) {
+					progress.increment(weight);
+					continue;
+				}
+				ScanResult cached = results == null ? null : results.get(f);
+				if (cached != null) {
+					// errors of cached results have already been handled
+					if (cached.error() != null) {
+						selection.addRegion(f);
+					} else {
+						applyScanResult(cached, seeds);
+					}
+					progress.increment(weight);
+					continue;
+				}
+				toScan.add(i);
+			}
+
+			if (workers.prefetchBytes() > 0) {
+				long[] prefetchRegions = new long[toScan.size()];
+				long[] prefetchSizes = new long[toScan.size()];
+				for (int i = 0; i < toScan.size(); i++) {
+					prefetchRegions[i] = work.region(toScan.getInt(i));
+					prefetchSizes[i] = work.size(toScan.getInt(i));
+				}
+				prefetcher = startPrefetcher(prefetchRegions, prefetchSizes);
+			}
+
+			WorkerPool.Jobs<WeightedResult<ScanResult>> scans = new WorkerPool.Jobs<>(workers.scan());
+			Prefetcher p = prefetcher;
+			for (int i : toScan) {
+				long f = work.region(i);
+				int weight = work.weight(i);
+				futures.add(scans.submit(work.priority(i), () -> new WeightedResult<>(weight, scanRegion(f, p))));
+			}
+
+			for (int i = 0; i < toScan.size(); i++) {
+				WeightedResult<ScanResult> weighted = takeResult(scans);
+				ScanResult result = weighted.result();
+				if (results != null) {
+					results.put(result.region(), result);
+				}
+				if (result.error() != null) {
+					if (errorHandler.handle(LOGGER, result.error(), "Failed to load mca file {}", result.file())) {
+						return false;
+					}
+					selection.addRegion(result.region());
+				} else {
+					applyScanResult(result, seeds);
+				}
+				progress.increment(weighted.weight());
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			errorHandler.handle(LOGGER, ex, "Interrupted while collecting chunks");
+			return false;
+		} finally {
+			// scans are only left if we abort, so they are not needed anymore
+			for (Future<WeightedResult<ScanResult>> future : futures) {
+				future.cancel(true);
+			}
+			if (prefetcher != null) {
+				prefetcher.close();
+			}
+		}
+
+		Timer t = new Timer();
+		PruneEvents.RadiusDilation event = new PruneEvents.RadiusDilation();
+		event.begin();
+		Selection dilated = Dilation.dilate(seeds, pruneData.radius());
+		selection.merge(dilated);
+		event.end();
+		LOGGER.info("Took {} to apply radius {}", t, pruneData.radius());
+		if (event.shouldCommit()) {
+			event.radius = pruneData.radius();
+			event.seedChunks = seeds.getStats().totalSelectedChunks();
+			event.selectedChunks = dilated.getStats().totalSelectedChunks();
+			event.commit();
+		}
+		return true;
+	}
+
+	// prefetches the files of the regions in the order they are scanned. files whose scan index is up to date are
+	// skipped, because their chunks are taken from the index and the file is never read.
+	private Prefetcher startPrefetcher(long[] regions, long[] sizes) {
+		LongArrayList prefetchRegions = new LongArrayList(regions.length);
+		LongArrayList prefetchSizes = new LongArrayList(regions.length);
+		for (int i = 0; i < regions.length; i++) {
+			Point region = new Point(regions[i]);
+			if (scanIndex == null || !scanIndex.isUpToDate(region, toFile(pruneData.regionDir(), region))) {
+				prefetchRegions.add(regions[i]);
+				prefetchSizes.add(sizes[i]);
+			}
+		}
+		Prefetcher prefetcher = new Prefetcher(pruneData.regionDir(), prefetchRegions.toLongArray(), prefetchSizes.toLongArray(), workers);
+		prefetcher.start();
+		return prefetcher;
+	}
+
+	private void applyScanResult(ScanResult result, Selection seeds) {
+		if (result.selection() != null) {
+			seeds.merge(result.selection());
+			structureManager.merge(result.structures());
+		}
+	}
+
+	// prefetcher is null if files are not prefetched
+	private ScanResult scanRegion(long f, Prefetcher prefetcher) {
+		Timer t = new Timer();
+		PruneEvents.RegionScan event = new PruneEvents.RegionScan();
+		event.begin();
+		Point region = new Point(f);
+		event.regionX = region.x();
+		event.regionZ = region.z();
+		File regionFile = toFile(pruneData.regionDir(), region);
+
+		// if the file is empty or only its header exists, we skip it
+		if (regionFile.exists() && regionFile.length() <= 8192) {
+			LOGGER.info("Skipped empty mca file {} with size {}", regionFile, regionFile.length());
+			return commit(event, "empty", new ScanResult(f, regionFile, null, null, null));
+		}
+		// when pruning in tiles, a file in the halo of a tile can already have been deleted by a previous tile
+		if (pruneData.execution().tileSize() > 0 && !regionFile.exists()) {
+			LOGGER.info("Skipped deleted mca file {}", regionFile);
+			return commit(event, "deleted", new ScanResult(f, regionFile, null, null, null));
+		}
+
+		RegionReader reader = regionReaders.get();
+		long bytesRead = reader.bytesRead();
+		int chunksDecompressed = reader.chunksDecompressed();
+		Prefetcher.Prefetched prefetched = prefetcher == null ? null : prefetcher.take(f);
+		ChunkSummary[] chunks;
+		try {
+			chunks = summarizeRegion(region, regionFile, prefetched == null ? null : prefetched.data());
+		} catch (IOException ex) {
+			recordReads(event, reader, bytesRead, chunksDecompressed);
+			return commit(event, "failed", new ScanResult(f, regionFile, null, null, ex));
+		} finally {
+			if (prefetched != null) {
+				prefetcher.release(prefetched);
+				metrics.filesPrefetched.increment();
+			}
+		}
+		recordReads(event, reader, bytesRead, chunksDecompressed);
+
+		Selection regionSelection = new Selection();
+		StructureManager regionStructures = new StructureManager(this, errorHandler);
+		for (ChunkSummary chunk : chunks) {
+			if (chunk != null) {
+				regionStructures.checkChunk(chunk);
+				// check InhabitedTime, the radius is applied to all seeds after the scan
+				if (!pruneData.whitelistOnly() && skipChunk(chunk)) {
+					regionSelection.addChunk(new Point(chunk.x(), chunk.z()));
+				}
+			}
+		}
+
+		LOGGER.info("Took {} to collect chunks in {}", t, regionFile);
+		metrics.scanLatency.record(t.getNano() / 1000);
+		// nothing is read if the scan index is up to date
+		return commit(event, event.bytesRead == 0 ? "indexed" : "scanned", new ScanResult(f, regionFile, regionSelection, regionStructures, null));
+	}
 
+	// records what the reader read since its counters had the given values
+	private void recordReads(PruneEvents.RegionScan event, RegionReader reader, long bytesRead, int chunksDecompressed) {
+		event.bytesRead = reader.bytesRead() - bytesRead;
+		event.chunksDecompressed = reader.chunksDecompressed() - chunksDecompressed;
+		metrics.bytesRead.add(event.bytesRead);
+		metrics.chunksDecompressed.add(event.chunksDecompressed);
+	}
+
+	private static ScanResult commit(PruneEvents.RegionScan event, String outcome, ScanResult result) {
+		event.outcome = outcome;
+		event.commit();
+		return result;
+	}
+
+	// returns the summaries of all chunks in a region file by their chunk index.
+	// if the scan index is enabled, the summaries of a region file that was not modified since the last run are
+	// taken from the index. otherwise, only chunks whose timestamp in the header changed are read again.
+	// contents is null if the file has not been prefetched
+	private ChunkSummary[] summarizeRegion(Point region, File regionFile, ByteBuffer contents) throws IOException {
+		long lastModified = regionFile.lastModified();
+		long length = regionFile.length();
+		ScanIndex.RegionIndex index = scanIndex == null ? null : scanIndex.load(region);
+		if (index != null && index.lastModified() == lastModified && index.length() == length) {
+			return index.chunks();
+		}
+
+		ChunkSummary[] chunks = readChunks(region, regionFile, index, contents);
+
+		if (scanIndex != null) {
+			try {
+				scanIndex.save(region, lastModified, length, chunks);
 			} catch (IOException ex) {
-				if (errorHandler.handle(LOGGER, ex, "Failed to deFragment mca file {}", regionFile)) {
-					progress.done();
-					return new DeFragmentResult(skippedChunks, deletedChunks, true);
+				LOGGER.warn("Failed to update scan index for {}", regionFile, ex);
+			}
+		}
+		return chunks;
+	}
+
+	// chunks are read with a RegionReader, which only decompresses as much of each chunk as needed.
+	// chunks from the index are reused if their timestamp in the header didn't change.
+	private ChunkSummary[] readChunks(Point region, File regionFile, ScanIndex.RegionIndex index, ByteBuffer contents) throws IOException {
+		ChunkSummary[] chunks = new ChunkSummary[1024];
+		Point origin = region.regionToChunk();
+		RegionReader reader = regionReaders.get();
+		try (FileChannel channel = contents == null ? FileChannel.open(regionFile.toPath(), StandardOpenOption.READ) : null) {
+			ByteBuffer header = contents == null ? reader.open(regionFile, channel) : reader.open(regionFile, contents);
+			for (int i = 0; i < 1024; i++) {
+				int location = header.getInt(i * 4);
+				if (location >>> 8 == 0 || (location & 0xFF) == 0) {
+					continue;
+				}
+				int timestamp = header.getInt(4096 + i * 4);
+				ChunkSummary indexed = index == null ? null : index.chunks()[i];
+				if (indexed != null && indexed.timestamp() == timestamp) {
+					chunks[i] = indexed;
+					continue;
+				}
+				chunks[i] = reader.read(location, new Point((short) i).add(origin), timestamp);
+				if (chunks[i] == null) {
+					// the chunk uses a compression type we can't read ourselves, so we let the library load the file
+					LOGGER.info("Falling back to loading {} completely because of an unsupported compression type", regionFile);
+					return loadChunks(regionFile, header);
 				}
 			}
-			progress.increment(1);
+		} finally {
+			reader.close();
 		}
-		return new DeFragmentResult(skippedChunks, deletedChunks, false);
+		return chunks;
 	}
 
-	private void applyRadius(Point chunk) {
-		Point min = chunk.sub(pruneData.radius());
-		Point max = chunk.add(pruneData.radius());
-		for (int x = min.x(); x <= max.x(); x++) {
-			for (int z = min.z(); z <= max.z(); z++) {
-				int h = x - chunk.x();
-				int v = z - chunk.z();
-				double distSquared = h * h + v * v;
-				if (distSquared <= radiusSquared) {
-					selection.addChunk(new Point(x, z));
+	// looks up the starts of kept structures that were not found while scanning, e.g. because their region was skipped
+	// in whitelist only mode or is outside the current tile. only the start chunks are read, not their whole regions.
+	// when pruning in tiles, structures are counted once for each tile that keeps them
+	private void resolveMissingStructures() {
+		LongOpenHashSet missing = structureManager.getMissingStarts();
+		if (!missing.isEmpty()) {
+			lookUpStarts(missing);
+		}
+		metrics.structuresKept.add(structureManager.getKeptCount());
+		metrics.structuresMissing.add(structureManager.getMissingCount());
+	}
+
+	// reads the structure starts of the given chunks
+	private void lookUpStarts(LongCollection missing) {
+		Timer t = new Timer();
+		PruneEvents.StructureLookup event = new PruneEvents.StructureLookup();
+		event.begin();
+		RegionReader reader = regionReaders.get();
+		long bytesRead = reader.bytesRead();
+		int chunksDecompressed = reader.chunksDecompressed();
+		Long2ObjectOpenHashMap<LongArrayList> regions = new Long2ObjectOpenHashMap<>();
+		for (long chunk : missing) {
+			regions.computeIfAbsent(new Point(chunk).chunkToRegion().asLong(), k -> new LongArrayList()).add(chunk);
+		}
+		for (Long2ObjectMap.Entry<LongArrayList> entry : Long2ObjectMaps.fastIterable(regions)) {
+			File regionFile = toFile(pruneData.regionDir(), new Point(entry.getLongKey()));
+			if (!regionFile.exists()) {
+				continue;
+			}
+			try {
+				readStarts(regionFile, entry.getValue());
+			} catch (IOException ex) {
+				LOGGER.warn("Failed to read structure starts from {}", regionFile, ex);
+			}
+		}
+		metrics.bytesRead.add(reader.bytesRead() - bytesRead);
+		metrics.chunksDecompressed.add(reader.chunksDecompressed() - chunksDecompressed);
+		LOGGER.info("Took {} to look up {} missing structure starts in {} mca files", t, missing.size(), regions.size());
+		event.missingStarts = missing.size();
+		event.files = regions.size();
+		event.commit();
+	}
+
+	private void readStarts(File regionFile, LongArrayList chunks) throws IOException {
+		RegionReader reader = regionReaders.get();
+		try (FileChannel channel = FileChannel.open(regionFile.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = reader.open(regionFile, channel);
+			for (long c : chunks) {
+				Point chunk = new Point(c);
+				int i = chunk.asChunkIndex();
+				int location = header.getInt(i * 4);
+				if (location >>> 8 == 0 || (location & 0xFF) == 0) {
+					continue;
+				}
+				ChunkSummary summary = reader.read(location, chunk, header.getInt(4096 + i * 4));
+				if (summary == null) {
+					LOGGER.warn("Failed to read structure starts of chunk {} in {} with an unsupported compression type", chunk, regionFile);
+					continue;
 				}
+				structureManager.addStarts(summary);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private ChunkSummary[] loadChunks(File regionFile, ByteBuffer header) throws IOException {
+		MCAFile mcaFile = loadMCAFile(regionFile);
+		metrics.bytesRead.add(regionFile.length());
+		ChunkSummary[] chunks = new ChunkSummary[1024];
+		for (Chunk chunk : mcaFile) {
+			if (chunk != null) {
+				int i = new Point(chunk.getX(), chunk.getZ()).asChunkIndex();
+				chunks[i] = ChunkSummary.fromChunk(chunk, header.getInt(4096 + i * 4));
+				metrics.chunksDecompressed.increment();
+			}
+		}
+		return chunks;
+	}
+
+	// the result of a job with the weight of its region in the progress
+	private record WeightedResult<T>(int weight, T result) {}
+
+	private record ScanResult(long region, File file, Selection selection, StructureManager structures, IOException error) {}
+
+	// the result of a job of the pipeline, either scan or compaction is null
+	private record PipelineResult(ScanResult scan, DeFragmentResult compaction) {}
+
+	static <T> T takeResult(CompletionService<T> completionService) throws InterruptedException {
+		try {
+			return completionService.take().get();
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException r) {
+				throw r;
+			} else if (ex.getCause() instanceof Error e) {
+				throw e;
 			}
+			throw new IllegalStateException(ex.getCause());
 		}
 	}
 }
@@ -0,0 +1,174 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.selection.Point;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// reads the header and single chunks of region files and scans the chunks with a ChunkScanner.
+// the chunk data is decompressed incrementally while it is scanned, so decompression stops as soon as the scanner
+// found everything it needs, which is usually long before the block data of the chunk.
+// a reader keeps its buffers, inflaters and scanner between chunks and files, so each scan thread uses its own reader.
+//
+// region files can either be read with positional reads into a reused buffer, or be mapped into memory. when mapped,
+// chunks are decompressed directly from the mapping without copying them. files that have already been read into
+// memory by a Prefetcher are read the same way as mapped files.
+final class RegionReader {
+
+	// set if the chunk is too large for the region file and stored in a separate .mcc file
+	private static final int EXTERNAL = 0x80;
+	// the largest chunk that can be stored in a region file
+	private static final int MAX_CHUNK_SIZE = 255 * 4096;
+
+	private final boolean mmap;
+	private final ByteBuffer header = ByteBuffer.allocate(8192);
+	// grows up to MAX_CHUNK_SIZE, or beyond that for external chunks
+	private ByteBuffer data = ByteBuffer.allocate(64 * 1024);
+	private final ChunkInput input = new ChunkInput();
+	private final ChunkScanner scanner = new ChunkScanner();
+
+	// the file that is currently read
+	private File file;
+	private FileChannel channel;
+	// the mapping of the file or its prefetched contents
+	private ByteBuffer mapped;
+	// bytes read and chunks decompressed since the reader was created, including external chunk files
+	private long bytesRead;
+	private int chunksDecompressed;
+
+	RegionReader(boolean mmap) {
+		this.mmap = mmap;
+	}
+
+	// starts reading a region file and returns its header, which is only valid until the next file is opened
+	ByteBuffer open(File file, FileChannel channel) throws IOException {
+		this.file = file;
+		this.channel = channel;
+		bytesRead += 8192;
+		if (mmap) {
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (mapped.capacity() < 8192) {
+				throw new EOFException("unexpected end of file " + file);
+			}
+			return mapped.slice(0, 8192);
+		}
+		header.clear();
+		Pruner.readFully(channel, header, 0);
+		return header;
+	}
+
+	// starts reading a region file from its contents in memory and returns its header
+	ByteBuffer open(File file, ByteBuffer contents) throws IOException {
+		this.file = file;
+		this.channel = null;
+		bytesRead += 8192;
+		if (contents.capacity() < 8192) {
+			throw new EOFException("unexpected end of file " + file);
+		}
+		mapped = contents;
+		return mapped.slice(0, 8192);
+	}
+
+	// releases the current file. a mapping is unmapped once it is garbage collected.
+	void close() {
+		file = null;
+		channel = null;
+		mapped = null;
+	}
+
+	long bytesRead() {
+		return bytesRead;
+	}
+
+	int chunksDecompressed() {
+		return chunksDecompressed;
+	}
+
+	// location is the entry of the chunk in the region file header.
+	// returns null if the chunk uses a compression type that is not supported.
+	ChunkSummary read(int location, Point chunk, int timestamp) throws IOException {
+		PruneEvents.ChunkDecode event = new PruneEvents.ChunkDecode();
+		event.begin();
+		ByteBuffer buffer = chunkData(location >>> 8, location & 0xFF);
+		if (buffer.remaining() < 5) {
+			throw new EOFException("chunk " + chunk + " in " + file + " is truncated");
+		}
+		int length = buffer.getInt();
+		if (length < 1 || length > buffer.remaining()) {
+			throw new IOException("invalid length " + length + " of chunk " + chunk + " in " + file);
+		}
+		int compression = buffer.get() & 0xFF;
+
+		boolean supported;
+		if ((compression & EXTERNAL) != 0) {
+			File external = new File(file.getParentFile(), String.format("c.%d.%d.mcc", chunk.x(), chunk.z()));
+			supported = input.reset(readFile(external), compression & ~EXTERNAL);
+		} else {
+			supported = input.reset(buffer.limit(buffer.position() + length - 1), compression);
+		}
+		if (!supported) {
+			commit(event, chunk, compression, length, "unsupported");
+			return null;
+		}
+		chunksDecompressed++;
+		ChunkSummary summary = scanner.scan(input, chunk.x(), chunk.z(), timestamp);
+		commit(event, chunk, compression, length, "scanned");
+		return summary;
+	}
+
+	private static void commit(PruneEvents.ChunkDecode event, Point chunk, int compression, int size, String outcome) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.chunkX = chunk.x();
+			event.chunkZ = chunk.z();
+			event.compression = compression;
+			event.compressedSize = size;
+			event.outcome = outcome;
+			event.commit();
+		}
+	}
+
+	// returns the sectors of a chunk. the last chunk of a file is not always padded to a full sector.
+	private ByteBuffer chunkData(int offset, int sectors) throws IOException {
+		long position = offset * 4096L;
+		if (mapped != null) {
+			if (position >= mapped.capacity()) {
+				return ByteBuffer.allocate(0);
+			}
+			ByteBuffer buffer = mapped.slice((int) position, (int) Math.min(sectors * 4096L, mapped.capacity() - position));
+			bytesRead += buffer.remaining();
+			return buffer;
+		}
+		ByteBuffer buffer = dataBuffer(sectors * 4096);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				break;
+			}
+		}
+		bytesRead += buffer.position();
+		return buffer.flip();
+	}
+
+	private ByteBuffer readFile(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("external chunk file " + file + " is too large");
+			}
+			ByteBuffer buffer = dataBuffer((int) size);
+			Pruner.readFully(channel, buffer, 0);
+			bytesRead += size;
+			return buffer;
+		}
+	}
+
+	private ByteBuffer dataBuffer(int size) {
+		if (data.capacity() < size) {
+			data = ByteBuffer.allocate(Math.max(size, Math.min(data.capacity() * 2, MAX_CHUNK_SIZE)));
+		}
+		return data.clear().limit(size);
+	}
+}
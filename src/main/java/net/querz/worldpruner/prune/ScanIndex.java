@@ -0,0 +1,187 @@
+package net.querz.worldpruner.prune;
+
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.querz.worldpruner.prune.structures.StructureData;
+import net.querz.worldpruner.prune.structures.StructureID;
+import net.querz.worldpruner.selection.Point;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// persists the ChunkSummary of every scanned chunk, so chunks that did not change since the last run don't need to
+// be decompressed again. there is one index file per region file, which stores the last modification time and size
+// of the region file and the summaries of all its chunks, including the timestamp from the region file header.
+final class ScanIndex {
+
+	private static final Logger LOGGER = LogManager.getLogger(ScanIndex.class);
+
+	static final String DIRECTORY_NAME = ".worldpruner-index";
+
+	private static final int MAGIC = 0x57504931; // WPI1
+
+	private static final Pattern INDEX_FILE_PATTERN = Pattern.compile("^r\\.(?<x>-?\\d+)\\.(?<z>-?\\d+)\\.idx$");
+
+	private final File dir;
+
+	ScanIndex(File worldDir) {
+		this.dir = new File(worldDir, DIRECTORY_NAME);
+	}
+
+	private File toFile(Point region) {
+		return new File(dir, String.format("r.%d.%d.idx", region.x(), region.z()));
+	}
+
+	// deletes the index files of regions whose region file doesn't exist anymore, e.g. because it was deleted by
+	// pruning, so the index doesn't keep growing
+	void removeStale(LongSet regions) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		int removed = 0;
+		for (File file : files) {
+			Matcher m = INDEX_FILE_PATTERN.matcher(file.getName());
+			if (!m.find() || regions.contains(new Point(Integer.parseInt(m.group("x")), Integer.parseInt(m.group("z"))).asLong())) {
+				continue;
+			}
+			if (file.delete()) {
+				removed++;
+			} else {
+				LOGGER.warn("Failed to delete stale index {}", file);
+			}
+		}
+		if (removed > 0) {
+			LOGGER.info("Deleted {} stale index files in {}", removed, dir);
+		}
+	}
+
+	// returns null if there is no index for this region or if it can't be read
+	RegionIndex load(Point region) {
+		File file = toFile(region);
+		if (!file.exists()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				LOGGER.warn("Ignoring index {} with unknown format", file);
+				return null;
+			}
+			long lastModified = in.readLong();
+			long length = in.readLong();
+			ChunkSummary[] chunks = new ChunkSummary[1024];
+			Point origin = region.regionToChunk();
+			int count = in.readUnsignedShort();
+			for (int c = 0; c < count; c++) {
+				int index = in.readUnsignedShort();
+				Point chunk = new Point((short) index).add(origin);
+				chunks[index] = readChunk(in, chunk);
+			}
+			return new RegionIndex(lastModified, length, chunks);
+		} catch (IOException ex) {
+			LOGGER.warn("Failed to read index {}", file, ex);
+			return null;
+		}
+	}
+
+	// true if the index of a region matches the last modification time and size of its file, without reading the chunks
+	boolean isUpToDate(Point region, File regionFile) {
+		File file = toFile(region);
+		if (!file.exists()) {
+			return false;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			return in.readInt() == MAGIC && in.readLong() == regionFile.lastModified() && in.readLong() == regionFile.length();
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	void save(Point region, long lastModified, long length, ChunkSummary[] chunks) throws IOException {
+		Files.createDirectories(dir.toPath());
+		File file = toFile(region);
+		File tempFile = File.createTempFile(file.getName() + "-", null, dir);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeInt(MAGIC);
+				out.writeLong(lastModified);
+				out.writeLong(length);
+				int count = 0;
+				for (ChunkSummary chunk : chunks) {
+					if (chunk != null) {
+						count++;
+					}
+				}
+				out.writeShort(count);
+				for (int i = 0; i < chunks.length; i++) {
+					if (chunks[i] != null) {
+						out.writeShort(i);
+						writeChunk(out, chunks[i]);
+					}
+				}
+			}
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+	}
+
+	private static void writeChunk(DataOutputStream out, ChunkSummary chunk) throws IOException {
+		out.writeInt(chunk.timestamp());
+		out.writeLong(chunk.inhabitedTime());
+		out.writeShort(chunk.structures().size());
+		for (StructureData structure : chunk.structures()) {
+			out.writeUTF(structure.structureID().id());
+			out.writeShort(structure.boundingBoxes().size());
+			for (StructureData.BoundingBox bb : structure.boundingBoxes()) {
+				out.writeInt(bb.minX());
+				out.writeInt(bb.minY());
+				out.writeInt(bb.minZ());
+				out.writeInt(bb.maxX());
+				out.writeInt(bb.maxY());
+				out.writeInt(bb.maxZ());
+			}
+		}
+		out.writeShort(chunk.references().size());
+		for (StructureID reference : chunk.references()) {
+			out.writeUTF(reference.id());
+			out.writeLong(reference.coords());
+		}
+	}
+
+	private static ChunkSummary readChunk(DataInputStream in, Point chunk) throws IOException {
+		int timestamp = in.readInt();
+		long inhabitedTime = in.readLong();
+		int structureCount = in.readUnsignedShort();
+		List<StructureData> structures = new ArrayList<>(structureCount);
+		for (int s = 0; s < structureCount; s++) {
+			String id = in.readUTF();
+			int boxCount = in.readUnsignedShort();
+			List<StructureData.BoundingBox> boxes = new ArrayList<>(boxCount);
+			for (int b = 0; b < boxCount; b++) {
+				boxes.add(new StructureData.BoundingBox(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+			}
+			structures.add(new StructureData(new StructureID(chunk.asLong(), id), boxes));
+		}
+		int referenceCount = in.readUnsignedShort();
+		List<StructureID> references = new ArrayList<>(referenceCount);
+		for (int r = 0; r < referenceCount; r++) {
+			String id = in.readUTF();
+			references.add(new StructureID(in.readLong(), id));
+		}
+		return new ChunkSummary(chunk.x(), chunk.z(), timestamp, inhabitedTime, structures, references);
+	}
+
+	// chunks contains the summary of each chunk by its chunk index, or null if the chunk does not exist
+	record RegionIndex(long lastModified, long length, ChunkSummary[] chunks) {}
+}
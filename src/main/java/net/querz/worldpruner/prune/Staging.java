@@ -0,0 +1,93 @@
+package net.querz.worldpruner.prune;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// a directory inside the world folder that rewritten files are written to before they replace the original files.
+// because it is on the same file system as the world, committing a file is a rename instead of a copy.
+final class Staging {
+
+	private static final Logger LOGGER = LogManager.getLogger(Staging.class);
+
+	static final String DIRECTORY_NAME = ".worldpruner-staging";
+
+	private static final boolean IS_WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+	private final File dir;
+	private final List<StagedFile> pending = new ArrayList<>();
+
+	Staging(File worldDir) {
+		this.dir = new File(worldDir, DIRECTORY_NAME);
+	}
+
+	// deletes files that were left behind by a previous run that did not commit them
+	void cleanup() throws IOException {
+		File[] stale = dir.listFiles();
+		if (stale == null) {
+			return;
+		}
+		for (File file : stale) {
+			LOGGER.info("Deleting stale staging file {} with size {}", file, file.length());
+			Files.deleteIfExists(file.toPath());
+		}
+	}
+
+	File createFile(File target) throws IOException {
+		Files.createDirectories(dir.toPath());
+		// region, poi and entities files share the same names, so the name of the parent directory is included
+		return File.createTempFile(target.getParentFile().getName() + "-" + target.getName() + "-", null, dir);
+	}
+
+	synchronized void add(File staged, File target) {
+		pending.add(new StagedFile(staged, target));
+	}
+
+	synchronized int pendingCount() {
+		return pending.size();
+	}
+
+	synchronized List<StagedFile> drain() {
+		List<StagedFile> files = new ArrayList<>(pending);
+		pending.clear();
+		return files;
+	}
+
+	static void commit(StagedFile file) throws IOException {
+		LOGGER.info("Overwriting {} with size {} with staged file {} with size {}", file.target, file.target.length(), file.staged, file.staged.length());
+		try {
+			Files.move(file.staged.toPath(), file.target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException ex) {
+			LOGGER.warn("Failed to atomically move {} to {}, falling back to a non-atomic move", file.staged, file.target);
+			Files.move(file.staged.toPath(), file.target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	// writes the entries of a directory to disk, so renames and deletions inside it survive a crash.
+	// directories can't be opened on Windows, where NTFS already journals its metadata.
+	static void forceDirectory(File dir) throws IOException {
+		if (IS_WINDOWS) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	void deleteIfEmpty() {
+		String[] files = dir.list();
+		if (files != null && files.length == 0 && !dir.delete()) {
+			LOGGER.warn("Failed to delete empty staging directory {}", dir);
+		}
+	}
+
+	record StagedFile(File staged, File target) {}
+}
@@ -0,0 +1,29 @@
+package net.querz.worldpruner.prune;
+
+import org.apache.logging.log4j.Logger;
+
+// serializes calls to an ErrorHandler that is shared between worker threads,
+// so only one error is ever reported (or one dialog shown) at a time
+final class SynchronizedErrorHandler implements ErrorHandler {
+
+	private final ErrorHandler delegate;
+
+	SynchronizedErrorHandler(ErrorHandler delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public synchronized boolean handle(Logger logger, String msg, Object... params) {
+		return delegate.handle(logger, msg, params);
+	}
+
+	@Override
+	public synchronized boolean handle(Logger logger, Throwable t, String msg, Object... params) {
+		return delegate.handle(logger, t, msg, params);
+	}
+
+	@Override
+	public synchronized boolean wasSuccessful() {
+		return delegate.wasSuccessful();
+	}
+}
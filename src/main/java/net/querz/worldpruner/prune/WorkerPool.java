@@ -0,0 +1,198 @@
+package net.querz.worldpruner.prune;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// the threads that scan and rewrite region files and the permits that limit concurrent file operations.
+// when multiple dimensions are pruned at the same time they share one pool, so the limits of the ExecutionOptions
+// apply to the whole run instead of to each dimension. the threads are started when they are first needed.
+// all threads of a pool take their work from one queue that is ordered by priority, which is the size of the files
+// unless IoOrder#DISK is used. a thread that runs out of work takes over the largest remaining file of any dimension, so
+// a few large files that would otherwise be processed last don't keep a single thread busy while all others are idle.
+final class WorkerPool implements AutoCloseable {
+
+	private static final Logger LOGGER = LogManager.getLogger(WorkerPool.class);
+
+	// higher priority first, jobs with the same priority in the order they were submitted
+	private static final Comparator<Runnable> PRIORITY = Comparator
+			.comparingLong((Runnable r) -> r instanceof Job<?> job ? -job.priority : 0)
+			.thenComparingLong(r -> r instanceof Job<?> job ? job.sequence : 0);
+
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
+	private final PruneData.ExecutionOptions execution;
+	// limits the number of file operations that are in flight at the same time while rewriting files
+	private final Semaphore ioPermits;
+	// the memory in KiB that can be used by files that have been prefetched but not scanned yet, see Prefetcher
+	private final Semaphore prefetchBudget;
+
+	private ExecutorService scan;
+	private ExecutorService compact;
+	private ExecutorService prefetch;
+
+	WorkerPool(PruneData.ExecutionOptions execution) {
+		this.execution = execution;
+		this.ioPermits = new Semaphore(execution.ioLimit());
+		// fair, so files are prefetched in order
+		this.prefetchBudget = new Semaphore(prefetchBytes() > 0 ? (int) (prefetchBytes() >> 10) : 0, true);
+	}
+
+	Semaphore ioPermits() {
+		return ioPermits;
+	}
+
+	// 0 if files are not prefetched
+	long prefetchBytes() {
+		return execution.prefetchMemory() * 1024L * 1024L;
+	}
+
+	Semaphore prefetchBudget() {
+		return prefetchBudget;
+	}
+
+	// prefetching is limited by the same number of concurrent file operations as rewriting files
+	int prefetchThreads() {
+		return execution.ioLimit();
+	}
+
+	synchronized ExecutorService scan() {
+		if (scan == null) {
+			scan = newPool(execution.threads(), "scan");
+		}
+		return scan;
+	}
+
+	synchronized ExecutorService compact() {
+		if (compact == null) {
+			compact = newPool(execution.compactThreads(), "compact");
+		}
+		return compact;
+	}
+
+	synchronized ExecutorService prefetch() {
+		if (prefetch == null) {
+			prefetch = Executors.newFixedThreadPool(prefetchThreads(), threadFactory("prefetch"));
+		}
+		return prefetch;
+	}
+
+	// stops all threads. files that are currently being rewritten are finished instead of interrupting them halfway.
+	@Override
+	public synchronized void close() {
+		if (scan != null) {
+			scan.shutdownNow();
+			scan = null;
+		}
+		if (prefetch != null) {
+			prefetch.shutdownNow();
+			prefetch = null;
+		}
+		if (compact != null) {
+			compact.shutdown();
+			try {
+				while (!compact.awaitTermination(1, TimeUnit.MINUTES)) {
+					LOGGER.info("Waiting for {} to finish", compact);
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			compact = null;
+		}
+	}
+
+	private static ExecutorService newPool(int threads, String name) {
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(64, PRIORITY), threadFactory(name));
+	}
+
+	static ThreadFactory threadFactory(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	// submits jobs to a pool of a WorkerPool with a priority, usually the size of the file they process, and returns them
+	// in the order they complete like ExecutorCompletionService. jobs without a priority are started last.
+	static final class Jobs<T> implements CompletionService<T> {
+
+		private final Executor executor;
+		private final BlockingQueue<Future<T>> completed = new LinkedBlockingQueue<>();
+
+		Jobs(Executor executor) {
+			this.executor = executor;
+		}
+
+		Future<T> submit(long priority, Callable<T> task) {
+			return submit(executor, priority, task);
+		}
+
+		// submits a job to another pool, so jobs of different pools can be taken from the same queue when they complete
+		Future<T> submit(Executor executor, long priority, Callable<T> task) {
+			Job<T> job = new Job<>(task, priority, completed);
+			executor.execute(job);
+			return job;
+		}
+
+		@Override
+		public Future<T> submit(Callable<T> task) {
+			return submit(0, task);
+		}
+
+		@Override
+		public Future<T> submit(Runnable task, T result) {
+			return submit(0, Executors.callable(task, result));
+		}
+
+		@Override
+		public Future<T> take() throws InterruptedException {
+			return completed.take();
+		}
+
+		@Override
+		public Future<T> poll() {
+			return completed.poll();
+		}
+
+		@Override
+		public Future<T> poll(long timeout, TimeUnit unit) throws InterruptedException {
+			return completed.poll(timeout, unit);
+		}
+	}
+
+	private static final class Job<T> extends FutureTask<T> {
+
+		private final long priority;
+		private final long sequence = SEQUENCE.getAndIncrement();
+		private final BlockingQueue<Future<T>> completed;
+
+		Job(Callable<T> task, long priority, BlockingQueue<Future<T>> completed) {
+			super(task);
+			this.priority = priority;
+			this.completed = completed;
+		}
+
+		@Override
+		protected void done() {
+			completed.add(this);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package net.querz.worldpruner.prune;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.querz.worldpruner.selection.Point;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+// the regions of a phase in the order they are processed.
+// with IoOrder#SIZE, regions are ordered by the size of their files, largest first, so large files are started early
+// instead of holding up the end of the phase.
+// with IoOrder#DISK, regions are ordered by the inode of their files, which roughly follows their location on disk
+// because file systems allocate inodes close to the data of files that are created together. if inodes are not
+// available, the order of the directory is used. jobs are then started in this order instead of largest first, which
+// avoids seeking on hard drives.
+// progress is reported by the size of the files instead of their number, otherwise the ETA would be too pessimistic
+// while the large files are processed and too optimistic afterwards. weights are in KiB, or in a larger unit if the
+// total would not fit into the int of a Progress. every region weighs at least 1.
+final class Workload {
+
+	private static final Logger LOGGER = LogManager.getLogger(Workload.class);
+
+	private final PruneData.IoOrder order;
+	private final long[] regions;
+	private final long[] sizes;
+	private final int[] weights;
+	private final int total;
+
+	// orders regions largest first
+	Workload(long[] regions, long[] sizes) {
+		this(PruneData.IoOrder.SIZE, regions, sizes, null);
+	}
+
+	// orders regions by their inodes, or keeps their order if inodes is null
+	Workload(long[] regions, long[] sizes, long[] inodes) {
+		this(PruneData.IoOrder.DISK, regions, sizes, inodes);
+	}
+
+	private Workload(PruneData.IoOrder order, long[] regions, long[] sizes, long[] inodes) {
+		if (regions.length != sizes.length || inodes != null && inodes.length != regions.length) {
+			throw new IllegalArgumentException("got " + regions.length + " regions with " + sizes.length + " sizes");
+		}
+		this.order = order;
+		this.regions = regions;
+		this.sizes = sizes;
+		Swapper swapper = (a, b) -> {
+			swap(regions, a, b);
+			swap(sizes, a, b);
+			if (inodes != null) {
+				swap(inodes, a, b);
+			}
+		};
+		if (order == PruneData.IoOrder.SIZE) {
+			// ties are ordered by region so the order doesn't depend on the order of a hash set
+			IntComparator largestFirst = (a, b) -> {
+				int c = Long.compare(sizes[b], sizes[a]);
+				return c != 0 ? c : Long.compare(regions[a], regions[b]);
+			};
+			Arrays.quickSort(0, regions.length, largestFirst, swapper);
+		} else if (inodes != null) {
+			// stable, so files that don't exist anymore keep their order
+			Arrays.mergeSort(0, regions.length, (a, b) -> Long.compare(inodes[a], inodes[b]), swapper);
+		}
+
+		long totalSize = 0;
+		for (long size : sizes) {
+			totalSize += size;
+		}
+		int shift = 10;
+		while ((totalSize >> shift) + regions.length > Integer.MAX_VALUE) {
+			shift++;
+		}
+		weights = new int[regions.length];
+		int sum = 0;
+		for (int i = 0; i < regions.length; i++) {
+			weights[i] = (int) Math.max(1, sizes[i] >> shift);
+			sum += weights[i];
+		}
+		total = sum;
+	}
+
+	private static void swap(long[] a, int i, int j) {
+		long t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
+	// the size of a file that doesn't exist is 0
+	static Workload of(LongCollection regions, File dir, PruneData.IoOrder order) {
+		if (order == PruneData.IoOrder.DISK) {
+			return ofDisk(regions, dir);
+		}
+		long[] r = regions.toLongArray();
+		long[] sizes = new long[r.length];
+		for (int i = 0; i < r.length; i++) {
+			sizes[i] = Pruner.toFile(dir, new Point(r[i])).length();
+		}
+		return new Workload(r, sizes);
+	}
+
+	private static Workload ofDisk(LongCollection regions, File dir) {
+		long[] r = new long[regions.size()];
+		int count = 0;
+		// regions in the order of the directory, then regions whose files don't exist anymore
+		LongOpenHashSet remaining = new LongOpenHashSet(regions);
+		String[] names = dir.list();
+		if (names != null) {
+			for (String name : names) {
+				Matcher m = Pruner.MCA_FILE_PATTERN.matcher(name);
+				if (m.find()) {
+					long region = new Point(Integer.parseInt(m.group("x")), Integer.parseInt(m.group("z"))).asLong();
+					if (remaining.remove(region)) {
+						r[count++] = region;
+					}
+				}
+			}
+		}
+		for (long region : remaining) {
+			r[count++] = region;
+		}
+
+		long[] sizes = new long[r.length];
+		long[] inodes = new long[r.length];
+		for (int i = 0; i < r.length; i++) {
+			File file = Pruner.toFile(dir, new Point(r[i]));
+			if (inodes != null) {
+				try {
+					Map<String, Object> attributes = Files.readAttributes(file.toPath(), "unix:ino,size");
+					inodes[i] = (Long) attributes.get("ino");
+					sizes[i] = (Long) attributes.get("size");
+					continue;
+				} catch (UnsupportedOperationException | IllegalArgumentException ex) {
+					LOGGER.info("Inodes are not available in {}, using the order of the directory", dir);
+					inodes = null;
+				} catch (IOException ex) {
+					// the file doesn't exist anymore, it stays after all others
+					inodes[i] = Long.MAX_VALUE;
+					continue;
+				}
+			}
+			sizes[i] = file.length();
+		}
+		return new Workload(r, sizes, inodes);
+	}
+
+	// jobs with a higher priority are started first, see WorkerPool.Jobs
+	long priority(int i) {
+		return order == PruneData.IoOrder.SIZE ? sizes[i] : 0;
+	}
+
+	int count() {
+		return regions.length;
+	}
+
+	long region(int i) {
+		return regions[i];
+	}
+
+	long size(int i) {
+		return sizes[i];
+	}
+
+	int weight(int i) {
+		return weights[i];
+	}
+
+	int totalWeight() {
+		return total;
+	}
+}
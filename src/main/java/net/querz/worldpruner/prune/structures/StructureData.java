@@ -75,9 +75,7 @@ public record StructureData(StructureID structureID, List<BoundingBox> boundingB
 	public Selection toSelection() {
 		Selection selection = new Selection();
 		for (BoundingBox boundingBox : boundingBoxes) {
-			for (long point : boundingBox.getChunksInside()) {
-				selection.addChunk(point);
-			}
+			boundingBox.selectChunksInside(selection);
 		}
 		return selection;
 	}
@@ -113,7 +111,10 @@ public record StructureData(StructureID structureID, List<BoundingBox> boundingB
 				if (!(child instanceof CompoundTag childData)) {
 					continue;
 				}
-				boundingBoxes.add(BoundingBox.fromTag(childData, "BB"));
+				BoundingBox childBB = BoundingBox.fromTag(childData, "BB");
+				if (childBB != null) {
+					boundingBoxes.add(childBB);
+				}
 			}
 
 			structureList.add(new StructureData(new StructureID(new Point(chunk.getX(), chunk.getZ()).asLong(), tag.getKey()), boundingBoxes/*, structureData*/));
@@ -159,13 +160,32 @@ public record StructureData(StructureID structureID, List<BoundingBox> boundingB
 
 		public LongOpenHashSet getChunksInside() {
 			LongOpenHashSet chunks = new LongOpenHashSet();
-			for (int x = minX - 16; x <= maxX + 16; x += 16) {
-				for (int z = minZ - 16; z <= maxZ + 16; z += 16) {
-					chunks.add(new Point(x, z).blockToChunk().asLong());
+			for (int x = minChunk(minX); x <= maxChunk(minX, maxX); x++) {
+				for (int z = minChunk(minZ); z <= maxChunk(minZ, maxZ); z++) {
+					chunks.add(new Point(x, z).asLong());
 				}
 			}
 			return chunks;
 		}
+
+		public void selectChunksInside(Selection selection) {
+			int minChunkX = minChunk(minX), maxChunkX = maxChunk(minX, maxX);
+			int minChunkZ = minChunk(minZ), maxChunkZ = maxChunk(minZ, maxZ);
+			if (minChunkX <= maxChunkX && minChunkZ <= maxChunkZ) {
+				selection.addRect(minChunkX, minChunkZ, maxChunkX, maxChunkZ);
+			}
+		}
+
+		// the chunks inside a bounding box are the chunks of every 16th block from 16 blocks before min up to 16 blocks
+		// after max, which includes a margin of one chunk around the box
+
+		static int minChunk(int min) {
+			return (min - 16) >> 4;
+		}
+
+		static int maxChunk(int min, int max) {
+			return (int) (minChunk(min) + Math.floorDiv((long) max - min + 32, 16));
+		}
 	}
 
 }
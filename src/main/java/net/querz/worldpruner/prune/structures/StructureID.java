@@ -1,6 +1,6 @@
 package net.querz.worldpruner.prune.structures;
 
-record StructureID(long coords, String id) {
+public record StructureID(long coords, String id) {
 
 	@Override
 	public boolean equals(Object o) {
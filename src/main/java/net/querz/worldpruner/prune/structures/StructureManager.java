@@ -1,60 +1,293 @@
 package net.querz.worldpruner.prune.structures;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMaps;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
-import net.querz.mca.Chunk;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.querz.worldpruner.prune.ChunkSummary;
 import net.querz.worldpruner.prune.ErrorHandler;
+import net.querz.worldpruner.prune.PruneEvents;
 import net.querz.worldpruner.prune.Pruner;
 import net.querz.worldpruner.selection.Point;
+import net.querz.worldpruner.selection.Selection;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 
+// collects the structure starts and references of all scanned chunks and resolves which chunks need to be kept
+// because they contain a part of a structure that is referenced by a kept chunk.
+//
+// structures are identified by a packed long key made of their start chunk and their type, which is interned to a
+// small int. the bounding boxes of a structure are converted to the rectangles of chunks they keep and stored in
+// flat int arrays. a structure is resolved as soon as both its start and a reference from a kept chunk have been
+// seen, so only the starts that are not (yet) referenced by a kept chunk are retained until the end.
 public class StructureManager {
 
 	private static final Logger LOGGER = LogManager.getLogger(StructureManager.class);
 
+	// chunk coordinates are stored in 24 bits each, the type in the remaining 16 bits
+	private static final int COORD_BITS = 24;
+	private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+	private static final int MAX_TYPES = 1 << 16;
+
 	private final Pruner pruner;
 	private final ErrorHandler errorHandler;
-	private final Map<StructureID, StructureData> cachedStructures;
-	private final HashSet<StructureID> structuresThatShouldBeKept;
+
+	private final Object2IntOpenHashMap<String> typeIds = new Object2IntOpenHashMap<>();
+	private final ObjectArrayList<String> typeNames = new ObjectArrayList<>();
+
+	// starts that have not been referenced by a kept chunk yet, by key. the value is the offset of their
+	// rectangles in startRects, where the number of rectangles is followed by 4 ints per rectangle.
+	private final Long2IntOpenHashMap starts = new Long2IntOpenHashMap();
+	private IntArrayList startRects = new IntArrayList();
+	// number of ints in startRects that belong to starts which have been resolved since
+	private int unusedRects;
+
+	// all structures that are referenced by a kept chunk, and the ones of them whose start has not been found yet
+	private final LongOpenHashSet kept = new LongOpenHashSet();
+	private final LongOpenHashSet missing = new LongOpenHashSet();
+	// the rectangles of chunks of all resolved structures, 4 ints per rectangle
+	private final IntArrayList keptRects = new IntArrayList();
+	// the start chunks of all resolved structures in the order they were resolved
+	private final LongArrayList resolvedStarts = new LongArrayList();
+	// the number of resolved starts and of ints in keptRects that have been added by addResolvedChunks
+	private int addedStarts;
+	private int addedRects;
 
 	public StructureManager(Pruner pruner, ErrorHandler errorHandler) {
 		this.pruner = pruner;
 		this.errorHandler = errorHandler;
-		this.cachedStructures = new HashMap<>();
-		this.structuresThatShouldBeKept = new HashSet<>();
+		this.typeIds.defaultReturnValue(-1);
+		this.starts.defaultReturnValue(-1);
 	}
 
-	public void checkChunk(Chunk chunk) {
-		List<StructureData> structureData = StructureData.fromChunk(chunk);
+	public void checkChunk(ChunkSummary chunk) {
+		List<StructureData> structureData = chunk.structures();
+		boolean keep = pruner.skipChunk(chunk);
 		for (StructureData data : structureData) {
-			cachedStructures.put(data.structureID(), data);
+			long key = key(data.structureID().coords(), type(data.structureID().id()));
+			if (keep) {
+				markKept(key);
+			}
+			addStart(key, toRects(data.boundingBoxes()), 0);
 		}
 
-		if (pruner.skipChunk(chunk)) {
-			structuresThatShouldBeKept.addAll(StructureData.getStructureReferences(chunk));
-			structuresThatShouldBeKept.addAll(structureData.stream().map(StructureData::structureID).toList());
+		if (keep) {
+			for (StructureID reference : chunk.references()) {
+				markKept(key(reference.coords(), type(reference.id())));
+			}
 		}
 	}
 
-	public LongOpenHashSet calculateChunksToKeep() {
-		LongOpenHashSet chunksToKeep = new LongOpenHashSet();
-		for (StructureID structure : structuresThatShouldBeKept) {
-			StructureData data = cachedStructures.get(structure);
-			if (data == null) {
-				LOGGER.warn("Failed to find structure {} at {}", structure.id(), new Point(structure.coords()).chunkToBlock());
-				continue;
+	// adds the structure starts of a chunk that was read only to find the starts of missing structures
+	public void addStarts(ChunkSummary chunk) {
+		for (StructureData data : chunk.structures()) {
+			addStart(key(data.structureID().coords(), type(data.structureID().id())), toRects(data.boundingBoxes()), 0);
+		}
+	}
+
+	// returns the start chunks of all kept structures whose start has not been found
+	public LongOpenHashSet getMissingStarts() {
+		LongOpenHashSet chunks = new LongOpenHashSet(missing.size());
+		for (long key : missing) {
+			chunks.add(chunk(key));
+		}
+		return chunks;
+	}
+
+	// the number of structures referenced by kept chunks, including the ones whose start has not been found
+	public int getKeptCount() {
+		return kept.size();
+	}
+
+	public int getMissingCount() {
+		return missing.size();
+	}
+
+	// merges the structures collected by another StructureManager, e.g. one used by a scan worker, into this one
+	public void merge(StructureManager other) {
+		// the types of the other manager are interned separately
+		int[] types = new int[other.typeNames.size()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = type(other.typeNames.get(i));
+		}
+
+		keptRects.addAll(other.keptRects);
+		resolvedStarts.addAll(other.resolvedStarts);
+		for (long key : other.kept) {
+			long remapped = remap(key, types);
+			if (other.missing.contains(key)) {
+				markKept(remapped);
+			} else {
+				// the other manager already resolved this structure, its rectangles were added above. it might have been
+				// missing here if its start was not in the regions merged so far.
+				kept.add(remapped);
+				missing.remove(remapped);
 			}
-			for (StructureData.BoundingBox boundingBox : data.getBoundingBoxes()) {
-				chunksToKeep.addAll(boundingBox.getChunksInside());
+		}
+
+		for (Long2IntMap.Entry start : Long2IntMaps.fastIterable(other.starts)) {
+			addStart(remap(start.getLongKey(), types), other.startRects.elements(), start.getIntValue());
+		}
+	}
+
+	public Selection calculateChunksToKeep() {
+		return calculateChunksToKeep(false);
+	}
+
+	// partial is true if only a part of the world was scanned. then, structures that start outside the scanned area
+	// are expected to be missing, and the start chunks of kept structures are always kept, so the structures can still
+	// be found when the area around them is scanned again after it was pruned.
+	public Selection calculateChunksToKeep(boolean partial) {
+		PruneEvents.StructureResolution event = new PruneEvents.StructureResolution();
+		event.begin();
+		Selection chunksToKeep = new Selection();
+		if (partial) {
+			for (long key : kept) {
+				if (!missing.contains(key)) {
+					chunksToKeep.addChunk(chunk(key));
+				}
 			}
+		} else {
+			for (long key : missing) {
+				LOGGER.warn("Failed to find structure {} at {}", typeNames.get(type(key)), new Point(chunk(key)).chunkToBlock());
+			}
+		}
+		for (int i = 0; i < keptRects.size(); i += 4) {
+			chunksToKeep.addRect(keptRects.getInt(i), keptRects.getInt(i + 1), keptRects.getInt(i + 2), keptRects.getInt(i + 3));
+		}
+		event.end();
+		long selectedChunks = chunksToKeep.getStats().totalSelectedChunks();
+		LOGGER.info("Keeping {} chunks containing structures", selectedChunks);
+		if (event.shouldCommit()) {
+			event.keptStructures = kept.size();
+			event.missingStructures = missing.size();
+			event.selectedChunks = selectedChunks;
+			event.partial = partial;
+			event.commit();
 		}
-		LOGGER.info("Keeping {} chunks containing structures", chunksToKeep.size());
 		return chunksToKeep;
 	}
 
+	// adds the chunks of all structures that have been resolved since the last call to a selection, including their
+	// start chunks like calculateChunksToKeep(true). this lets the chunks of structures be kept while the world is still
+	// being scanned.
+	public void addResolvedChunks(Selection selection) {
+		for (; addedStarts < resolvedStarts.size(); addedStarts++) {
+			selection.addChunk(resolvedStarts.getLong(addedStarts));
+		}
+		for (; addedRects < keptRects.size(); addedRects += 4) {
+			selection.addRect(keptRects.getInt(addedRects), keptRects.getInt(addedRects + 1), keptRects.getInt(addedRects + 2), keptRects.getInt(addedRects + 3));
+		}
+	}
+
+	private void markKept(long key) {
+		if (!kept.add(key)) {
+			return;
+		}
+		if (starts.containsKey(key)) {
+			int offset = starts.remove(key);
+			int length = 1 + startRects.getInt(offset) * 4;
+			keptRects.addElements(keptRects.size(), startRects.elements(), offset + 1, length - 1);
+			resolvedStarts.add(chunk(key));
+			unusedRects += length;
+			compact();
+		} else {
+			missing.add(key);
+		}
+	}
+
+	// rects contains the number of rectangles at offset, followed by the rectangles
+	private void addStart(long key, int[] rects, int offset) {
+		int length = 1 + rects[offset] * 4;
+		if (kept.contains(key)) {
+			if (missing.remove(key)) {
+				keptRects.addElements(keptRects.size(), rects, offset + 1, length - 1);
+				resolvedStarts.add(chunk(key));
+			}
+			return;
+		}
+		int previous = starts.put(key, startRects.size());
+		if (previous != -1) {
+			unusedRects += 1 + startRects.getInt(previous) * 4;
+		}
+		startRects.addElements(startRects.size(), rects, offset, length);
+	}
+
+	// drops the rectangles of resolved starts once they take up more than half of startRects
+	private void compact() {
+		if (unusedRects <= startRects.size() / 2) {
+			return;
+		}
+		IntArrayList compacted = new IntArrayList(startRects.size() - unusedRects);
+		for (Long2IntMap.Entry start : Long2IntMaps.fastIterable(starts)) {
+			int offset = start.getIntValue();
+			int length = 1 + startRects.getInt(offset) * 4;
+			start.setValue(compacted.size());
+			compacted.addElements(compacted.size(), startRects.elements(), offset, length);
+		}
+		startRects = compacted;
+		unusedRects = 0;
+	}
+
+	private int type(String id) {
+		int type = typeIds.getInt(id);
+		if (type == -1) {
+			type = typeNames.size();
+			if (type == MAX_TYPES) {
+				throw new IllegalStateException("too many structure types");
+			}
+			typeIds.put(id, type);
+			typeNames.add(id);
+		}
+		return type;
+	}
+
+	private static long key(long chunk, int type) {
+		Point p = new Point(chunk);
+		return (long) type << 2 * COORD_BITS | (p.z() & COORD_MASK) << COORD_BITS | p.x() & COORD_MASK;
+	}
+
+	private static int type(long key) {
+		return (int) (key >>> 2 * COORD_BITS);
+	}
+
+	private static long chunk(long key) {
+		// shift the coordinates to the top of an int and back to restore their sign
+		int x = (int) (key << 64 - COORD_BITS >> 64 - COORD_BITS);
+		int z = (int) (key << 64 - 2 * COORD_BITS >> 64 - COORD_BITS);
+		return new Point(x, z).asLong();
+	}
+
+	private static long remap(long key, int[] types) {
+		return (long) types[type(key)] << 2 * COORD_BITS | key & (1L << 2 * COORD_BITS) - 1;
+	}
+
+	// converts bounding boxes to the rectangles of chunks that are kept for them, see BoundingBox#getChunksInside.
+	// the result contains the number of rectangles, followed by minX, minZ, maxX and maxZ of each rectangle.
+	private static int[] toRects(List<StructureData.BoundingBox> boundingBoxes) {
+		int[] rects = new int[1 + boundingBoxes.size() * 4];
+		int count = 0;
+		for (StructureData.BoundingBox bb : boundingBoxes) {
+			int minX = StructureData.BoundingBox.minChunk(bb.minX());
+			int minZ = StructureData.BoundingBox.minChunk(bb.minZ());
+			int maxX = StructureData.BoundingBox.maxChunk(bb.minX(), bb.maxX());
+			int maxZ = StructureData.BoundingBox.maxChunk(bb.minZ(), bb.maxZ());
+			if (maxX < minX || maxZ < minZ) {
+				continue;
+			}
+			rects[1 + count * 4] = minX;
+			rects[2 + count * 4] = minZ;
+			rects[3 + count * 4] = maxX;
+			rects[4 + count * 4] = maxZ;
+			count++;
+		}
+		rects[0] = count;
+		return rects;
+	}
 }
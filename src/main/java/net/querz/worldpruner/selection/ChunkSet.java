@@ -6,6 +6,7 @@ import it.unimi.dsi.fastutil.shorts.ShortIterator;
 import it.unimi.dsi.fastutil.shorts.ShortPredicate;
 import javax.annotation.Nonnull;
 import java.io.Serializable;
+import java.util.NoSuchElementException;
 
 public class ChunkSet implements ShortIterable, Serializable, Cloneable {
 
@@ -39,12 +40,83 @@ public class ChunkSet implements ShortIterable, Serializable, Cloneable {
 		return (words[index >> 6] & (1L << index)) != 0;
 	}
 
+	// each row of 32 chunks with the same z coordinate is stored in one half of a word
+
+	// returns the chunks of a row as a bit mask, with bit x set if the chunk at x is in this set
+	public int getRow(int z) {
+		return (int) (words[z >> 1] >>> ((z & 1) << 5));
+	}
+
+	// adds all chunks from minX to maxX (inclusive) in row z
+	public void setRow(int z, int minX, int maxX) {
+		long mask = (-1L >>> (63 - (maxX - minX))) << (minX + ((z & 1) << 5));
+		setBits += Long.bitCount(mask & ~words[z >> 1]);
+		words[z >> 1] |= mask;
+	}
+
+	// removes all chunks from minX to maxX (inclusive) in row z
+	public void clearRow(int z, int minX, int maxX) {
+		long mask = (-1L >>> (63 - (maxX - minX))) << (minX + ((z & 1) << 5));
+		setBits -= Long.bitCount(mask & words[z >> 1]);
+		words[z >> 1] &= ~mask;
+	}
+
+	// adds all chunks from minX to maxX and from minZ to maxZ (inclusive)
+	public void setRect(int minX, int minZ, int maxX, int maxZ) {
+		for (int z = minZ; z <= maxZ; z++) {
+			setRow(z, minX, maxX);
+		}
+	}
+
+	// removes all chunks from minX to maxX and from minZ to maxZ (inclusive)
+	public void clearRect(int minX, int minZ, int maxX, int maxZ) {
+		for (int z = minZ; z <= maxZ; z++) {
+			clearRow(z, minX, maxX);
+		}
+	}
+
 	public void merge(ChunkSet other) {
-		for (short i = 0; i < 1024; i++) {
-			if (other.get(i)) {
-				set(i);
-			}
+		or(other);
+	}
+
+	// adds all chunks of other to this set
+	public void or(ChunkSet other) {
+		for (int i = 0; i < 16; i++) {
+			words[i] |= other.words[i];
+		}
+		updateSize();
+	}
+
+	// removes all chunks from this set that are not in other
+	public void and(ChunkSet other) {
+		for (int i = 0; i < 16; i++) {
+			words[i] &= other.words[i];
+		}
+		updateSize();
+	}
+
+	// removes all chunks of other from this set
+	public void andNot(ChunkSet other) {
+		for (int i = 0; i < 16; i++) {
+			words[i] &= ~other.words[i];
+		}
+		updateSize();
+	}
+
+	// inverts this set
+	public void not() {
+		for (int i = 0; i < 16; i++) {
+			words[i] = ~words[i];
+		}
+		setBits = (short) (1024 - setBits);
+	}
+
+	void updateSize() {
+		int bits = 0;
+		for (int i = 0; i < 16; i++) {
+			bits += Long.bitCount(words[i]);
 		}
+		setBits = (short) bits;
 	}
 
 	@Override
@@ -68,6 +140,10 @@ public class ChunkSet implements ShortIterable, Serializable, Cloneable {
 		return setBits == 0;
 	}
 
+	public boolean isFull() {
+		return setBits == 1024;
+	}
+
 	@Override
 	@Nonnull
 	public ShortIterator iterator() {
@@ -76,46 +152,61 @@ public class ChunkSet implements ShortIterable, Serializable, Cloneable {
 
 	@Override
 	public void forEach(ShortConsumer action) {
-		for (short i = 0; i < 1024; i++) {
-			if (get(i)) {
-				action.accept(i);
+		for (int i = 0; i < 16; i++) {
+			long word = words[i];
+			while (word != 0) {
+				action.accept((short) (i << 6 | Long.numberOfTrailingZeros(word)));
+				// clear the lowest set bit
+				word &= word - 1;
 			}
 		}
 	}
 
+	// only chunks that are in this set are tested, because other chunks can't be removed
 	public void removeIf(ShortPredicate predicate) {
-		for (short i = 0; i < 1024; i++) {
-			if (predicate.test(i)) {
-				clear(i);
+		for (int i = 0; i < 16; i++) {
+			long word = words[i];
+			long removed = 0;
+			while (word != 0) {
+				long bit = word & -word;
+				if (predicate.test((short) (i << 6 | Long.numberOfTrailingZeros(word)))) {
+					removed |= bit;
+				}
+				word ^= bit;
 			}
+			words[i] &= ~removed;
 		}
+		updateSize();
 	}
 
 	private class ChunkIterator implements ShortIterator {
 
-		short index = 0;
+		int wordIndex = 0;
+		// the bits of the current word that were not returned yet
+		long word = words[0];
 
 		@Override
 		public short nextShort() {
-			return (short) (index - 1);
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			short index = (short) (wordIndex << 6 | Long.numberOfTrailingZeros(word));
+			word &= word - 1;
+			return index;
 		}
 
 		@Override
 		public boolean hasNext() {
-			while (index < 1024) {
-				if (get(index++)) {
-					return true;
-				}
+			while (word == 0 && wordIndex < 15) {
+				word = words[++wordIndex];
 			}
-			return false;
+			return word != 0;
 		}
 
 		@Override
 		public void forEachRemaining(ShortConsumer action) {
-			for (; index < 1024; index++) {
-				if (get(index)) {
-					action.accept(index);
-				}
+			while (hasNext()) {
+				action.accept(nextShort());
 			}
 		}
 	}
@@ -146,6 +237,16 @@ public class ChunkSet implements ShortIterable, Serializable, Cloneable {
 			throw new UnsupportedOperationException("cannot modify immutable ChunkSet");
 		}
 
+		@Override
+		public void setRow(int z, int minX, int maxX) {
+			throw new UnsupportedOperationException("cannot modify immutable ChunkSet");
+		}
+
+		@Override
+		public void clearRow(int z, int minX, int maxX) {
+			throw new UnsupportedOperationException("cannot modify immutable ChunkSet");
+		}
+
 		@Override
 		public void removeIf(ShortPredicate predicate) {
 			throw new UnsupportedOperationException("cannot modify immutable ChunkSet");
@@ -155,5 +256,25 @@ public class ChunkSet implements ShortIterable, Serializable, Cloneable {
 		public void merge(ChunkSet other) {
 			throw new UnsupportedOperationException("cannot modify immutable ChunkSet");
 		}
+
+		@Override
+		public void or(ChunkSet other) {
+			throw new UnsupportedOperationException("cannot modify immutable ChunkSet");
+		}
+
+		@Override
+		public void and(ChunkSet other) {
+			throw new UnsupportedOperationException("cannot modify immutable ChunkSet");
+		}
+
+		@Override
+		public void andNot(ChunkSet other) {
+			throw new UnsupportedOperationException("cannot modify immutable ChunkSet");
+		}
+
+		@Override
+		public void not() {
+			throw new UnsupportedOperationException("cannot modify immutable ChunkSet");
+		}
 	}
 }
\ No newline at end of file
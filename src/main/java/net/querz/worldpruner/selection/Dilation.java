@@ -0,0 +1,79 @@
+package net.querz.worldpruner.selection;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+// selects all chunks within a radius around the chunks of a selection.
+// instead of testing every chunk in the square around every selected chunk, the disc around a chunk is described by
+// the half width of each of its rows. consecutive selected chunks in a row are dilated together, and each row of
+// the result is filled with word masks, so a disc costs about one mask operation per row and region it touches.
+public final class Dilation {
+
+	private Dilation() {}
+
+	// halfWidths[dz] is the largest dx with dx * dx + dz * dz <= radius * radius
+	static int[] halfWidths(int radius) {
+		int[] halfWidths = new int[radius + 1];
+		int dx = radius;
+		for (int dz = 0; dz <= radius; dz++) {
+			while (dx * dx + dz * dz > radius * radius) {
+				dx--;
+			}
+			halfWidths[dz] = dx;
+		}
+		return halfWidths;
+	}
+
+	// returns a new selection containing all chunks within radius of a chunk in seeds
+	public static Selection dilate(Selection seeds, int radius) {
+		if (seeds.inverted) {
+			throw new IllegalArgumentException("cannot dilate an inverted selection");
+		}
+		int[] halfWidths = halfWidths(radius);
+		Long2ObjectOpenHashMap<ChunkSet> result = new Long2ObjectOpenHashMap<>();
+		for (Long2ObjectMap.Entry<ChunkSet> entry : Long2ObjectMaps.fastIterable(seeds.selection)) {
+			Point origin = new Point(entry.getLongKey()).regionToChunk();
+			ChunkSet chunks = entry.getValue();
+			for (int z = 0; z < 32; z++) {
+				int row = chunks == null ? -1 : chunks.getRow(z);
+				while (row != 0) {
+					// find the next run of consecutive chunks in this row
+					int start = Integer.numberOfTrailingZeros(row);
+					int length = Integer.numberOfTrailingZeros(~(row >>> start));
+					row = length == 32 ? 0 : row & ~(((1 << length) - 1) << start);
+
+					int minX = origin.x() + start;
+					int maxX = minX + length - 1;
+					for (int dz = -radius; dz <= radius; dz++) {
+						int halfWidth = halfWidths[Math.abs(dz)];
+						fillRow(result, origin.z() + z + dz, minX - halfWidth, maxX + halfWidth);
+					}
+				}
+			}
+		}
+
+		for (Long2ObjectMap.Entry<ChunkSet> entry : Long2ObjectMaps.fastIterable(result)) {
+			if (entry.getValue().isFull()) {
+				entry.setValue(null);
+			}
+		}
+		return new Selection(result, false);
+	}
+
+	// selects the chunks from minX to maxX in row z, which can spill into neighbouring regions
+	private static void fillRow(Long2ObjectOpenHashMap<ChunkSet> selection, int z, int minX, int maxX) {
+		int regionZ = z >> 5;
+		int localZ = z & 0x1F;
+		for (int regionX = minX >> 5; regionX <= maxX >> 5; regionX++) {
+			int regionMinX = regionX << 5;
+			long region = new Point(regionX, regionZ).asLong();
+			ChunkSet chunks = selection.get(region);
+			if (chunks == null) {
+				chunks = new ChunkSet();
+				selection.put(region, chunks);
+			}
+			chunks.setRow(localZ, Math.max(minX, regionMinX) - regionMinX, Math.min(maxX, regionMinX + 31) - regionMinX);
+		}
+	}
+}
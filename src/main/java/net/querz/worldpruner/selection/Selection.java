@@ -1,8 +1,12 @@
 package net.querz.worldpruner.selection;
 
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongCollection;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import java.io.*;
 
 public class Selection {
@@ -20,6 +24,25 @@ public class Selection {
 		this.inverted = inverted;
 	}
 
+	public Selection copy() {
+		Long2ObjectOpenHashMap<ChunkSet> sel = new Long2ObjectOpenHashMap<>(selection.size());
+		for (Long2ObjectMap.Entry<ChunkSet> entry : selection.long2ObjectEntrySet()) {
+			sel.put(entry.getLongKey(), cloneValue(entry.getValue()));
+		}
+		return new Selection(sel, inverted);
+	}
+
+	// returns a copy that only matches this selection in the given regions, which uses less memory than a full copy
+	public Selection copy(LongCollection regions) {
+		Long2ObjectOpenHashMap<ChunkSet> sel = new Long2ObjectOpenHashMap<>();
+		for (long region : regions) {
+			if (selection.containsKey(region)) {
+				sel.put(region, cloneValue(selection.get(region)));
+			}
+		}
+		return new Selection(sel, inverted);
+	}
+
 	public static Selection parseCSV(File csvFile) throws IOException {
 		Long2ObjectOpenHashMap<ChunkSet> sel = new Long2ObjectOpenHashMap<>();
 		Selection selection = new Selection(sel, false);
@@ -128,6 +151,42 @@ public class Selection {
 		}
 	}
 
+	// selects all chunks from min to max (inclusive). the rectangle is filled region by region with row masks.
+	public void addRect(int minX, int minZ, int maxX, int maxZ) {
+		for (int regionZ = minZ >> 5; regionZ <= maxZ >> 5; regionZ++) {
+			int regionMinZ = regionZ << 5;
+			int z0 = Math.max(minZ, regionMinZ) - regionMinZ;
+			int z1 = Math.min(maxZ, regionMinZ + 31) - regionMinZ;
+			for (int regionX = minX >> 5; regionX <= maxX >> 5; regionX++) {
+				int regionMinX = regionX << 5;
+				int x0 = Math.max(minX, regionMinX) - regionMinX;
+				int x1 = Math.min(maxX, regionMinX + 31) - regionMinX;
+				long region = new Point(regionX, regionZ).asLong();
+				if (x0 == 0 && z0 == 0 && x1 == 31 && z1 == 31) {
+					addRegion(region);
+				} else if (inverted) {
+					if (selection.containsKey(region)) {
+						ChunkSet chunks = selection.get(region);
+						if (chunks == null) {
+							// the whole region is not selected
+							chunks = new ChunkSet();
+							chunks.not();
+						}
+						chunks.clearRect(x0, z0, x1, z1);
+						putOrRemove(region, chunks);
+					}
+				} else if (!selection.containsKey(region) || selection.get(region) != null) {
+					ChunkSet chunks = selection.get(region);
+					if (chunks == null) {
+						chunks = new ChunkSet();
+					}
+					chunks.setRect(x0, z0, x1, z1);
+					selection.put(region, full(chunks));
+				}
+			}
+		}
+	}
+
 	public void addRegion(long region) {
 		if (inverted) {
 			selection.remove(region);
@@ -171,129 +230,115 @@ public class Selection {
 		if (chunks == null) {
 			return new ChunkSet();
 		}
-		ChunkSet result = new ChunkSet();
-		for (short i = 0; i < 1024; i++) {
-			if (!chunks.get(i)) {
-				result.set(i);
-			}
-		}
+		ChunkSet result = chunks.clone();
+		result.not();
 		return result;
 	}
 
+	// the chunks of a region are stored as a ChunkSet, or as null if the whole region is stored.
+	// in an inverted selection, the stored chunks are the chunks that are not selected.
 	public void merge(Selection other) {
 		if (!inverted && !other.inverted) {
-
-			for (Long2ObjectMap.Entry<ChunkSet> entry : other.selection.long2ObjectEntrySet()) {
+			// selected = this | other
+			for (Long2ObjectMap.Entry<ChunkSet> entry : Long2ObjectMaps.fastIterable(other.selection)) {
 				long r = entry.getLongKey();
 				if (selection.containsKey(r)) {
-					selection.put(r, add(selection.get(r), entry.getValue()));
+					selection.put(r, or(selection.get(r), entry.getValue()));
 				} else {
 					selection.put(r, cloneValue(entry.getValue()));
 				}
 			}
 		} else if (inverted && !other.inverted) {
-			// subtract all other chunks from this selection
-			for (Long2ObjectMap.Entry<ChunkSet> entry : other.selection.long2ObjectEntrySet()) {
+			// not selected = this & ~other
+			for (Long2ObjectMap.Entry<ChunkSet> entry : Long2ObjectMaps.fastIterable(other.selection)) {
 				long r = entry.getLongKey();
 				if (selection.containsKey(r)) {
-					ChunkSet result = subtract(selection.get(r), entry.getValue());
-					if (result.size() == 0) {
-						selection.remove(r);
-					} else {
-						selection.put(r, result);
-					}
+					putOrRemove(r, andNot(selection.get(r), entry.getValue()));
 				}
 			}
 		} else if (!inverted) { // this selection is not inverted but the other is
-			// if something is marked in the other selection, we add it to this selection
-			// remember the regions we already touched and ignore them in the next loop
-			for (Long2ObjectMap.Entry<ChunkSet> entry : other.selection.long2ObjectEntrySet()) {
+			// not selected = other & ~this, regions that are not in other are fully selected
+			ObjectIterator<Long2ObjectMap.Entry<ChunkSet>> it = Long2ObjectMaps.fastIterator(selection);
+			while (it.hasNext()) {
+				if (!other.selection.containsKey(it.next().getLongKey())) {
+					it.remove();
+				}
+			}
+			for (Long2ObjectMap.Entry<ChunkSet> entry : Long2ObjectMaps.fastIterable(other.selection)) {
 				long r = entry.getLongKey();
 				if (selection.containsKey(r)) {
-					ChunkSet result;
-					if ((result = subtract(cloneValue(entry.getValue()), selection.get(r))).size() == 0) {
-						selection.remove(r);
-					} else {
-						selection.put(r, result);
-					}
+					putOrRemove(r, andNot(cloneValue(entry.getValue()), selection.get(r)));
 				} else {
 					selection.put(r, cloneValue(entry.getValue()));
 				}
 			}
-
-			// if something is marked in this selection, but not the other, we remove it so it's marked when inverted
-			for (Long2ObjectMap.Entry<ChunkSet> entry : selection.long2ObjectEntrySet()) {
-				long r = entry.getLongKey();
-				if (!other.selection.containsKey(r)) {
-					selection.remove(r);
-				}
-			}
-			// invert this selection at the end
 			inverted = true;
 		} else { // both are inverted
-
-			for (Long2ObjectMap.Entry<ChunkSet> entry : selection.long2ObjectEntrySet()) {
+			// not selected = this & other, regions that are not in other are fully selected
+			ObjectIterator<Long2ObjectMap.Entry<ChunkSet>> it = Long2ObjectMaps.fastIterator(selection);
+			while (it.hasNext()) {
+				Long2ObjectMap.Entry<ChunkSet> entry = it.next();
 				long r = entry.getLongKey();
 				if (!other.selection.containsKey(r)) {
-					// region does not exist in other selection, so it is fully marked.
-					// we have to delete it from this selection to mark it too.
-					selection.remove(r);
+					it.remove();
+					continue;
+				}
+				ChunkSet intersection = and(entry.getValue(), other.selection.get(r));
+				if (intersection != null && intersection.isEmpty()) {
+					it.remove();
 				} else {
-					// region exists in other selection so we need to union them
-					ChunkSet union = union(entry.getValue(), other.selection.get(r));
-					// and put it in this selection
-					if (union != null && union.size() == 0) {
-						// the union is completely selected, so we remove this region to fully mark it
-						selection.remove(r);
-					} else {
-						selection.put(r, union);
-					}
+					entry.setValue(intersection);
 				}
 			}
 		}
 	}
 
+	// stores the chunks of a region, removing the region if there are no chunks left
+	private void putOrRemove(long region, ChunkSet chunks) {
+		if (chunks != null && chunks.isEmpty()) {
+			selection.remove(region);
+		} else {
+			selection.put(region, chunks);
+		}
+	}
+
 	private static ChunkSet cloneValue(ChunkSet v) {
 		return v == null ? null : v.clone();
 	}
 
-	private static ChunkSet union(ChunkSet a, ChunkSet b) {
+	// the following operations reuse a if possible and return null for a full region
+
+	private static ChunkSet and(ChunkSet a, ChunkSet b) {
 		if (a == null) {
 			return cloneValue(b);
 		}
-		if (b == null) {
-			return a;
+		if (b != null) {
+			a.and(b);
 		}
-		a.forEach(l -> {
-			if (!b.get(l)) {
-				a.clear(l);
-			}
-		});
-		b.forEach(l -> {
-			if (!a.get(l)) {
-				a.clear(l);
-			}
-		});
 		return a;
 	}
 
-	private static ChunkSet subtract(ChunkSet source, ChunkSet target) {
-		if (source == null) {
-			return invertChunks(target);
-		}
-		if (target == null) {
+	private static ChunkSet andNot(ChunkSet a, ChunkSet b) {
+		if (b == null) {
 			return new ChunkSet();
 		}
-		source.removeIf(target::get);
-		return source;
+		if (a == null) {
+			return full(invertChunks(b));
+		}
+		a.andNot(b);
+		return a;
 	}
 
-	private static ChunkSet add(ChunkSet source, ChunkSet target) {
-		if (source == null || target == null) {
+	private static ChunkSet or(ChunkSet a, ChunkSet b) {
+		if (a == null || b == null) {
 			return null;
 		}
-		source.merge(target);
-		return source.size() == 1024 ? null : source;
+		a.or(b);
+		return full(a);
+	}
+
+	private static ChunkSet full(ChunkSet chunks) {
+		return chunks.isFull() ? null : chunks;
 	}
 
 	public void addAll(LongOpenHashSet entries) {
@@ -351,6 +396,44 @@ public class Selection {
 		return getStats().toString();
 	}
 
+	// writes this selection in a compact binary form, with each partially selected region as a bitmap of its chunks.
+	// regions are written in order, so equal selections are always written the same way.
+	public void write(DataOutputStream out) throws IOException {
+		out.writeBoolean(inverted);
+		long[] regions = selection.keySet().toLongArray();
+		LongArrays.radixSort(regions);
+		out.writeInt(regions.length);
+		for (long region : regions) {
+			out.writeLong(region);
+			ChunkSet chunks = selection.get(region);
+			out.writeBoolean(chunks != null);
+			if (chunks != null) {
+				for (long word : chunks.words) {
+					out.writeLong(word);
+				}
+			}
+		}
+	}
+
+	public static Selection read(DataInputStream in) throws IOException {
+		boolean inverted = in.readBoolean();
+		int count = in.readInt();
+		Long2ObjectOpenHashMap<ChunkSet> sel = new Long2ObjectOpenHashMap<>(count);
+		for (int i = 0; i < count; i++) {
+			long region = in.readLong();
+			ChunkSet chunks = null;
+			if (in.readBoolean()) {
+				chunks = new ChunkSet();
+				for (int w = 0; w < chunks.words.length; w++) {
+					chunks.words[w] = in.readLong();
+				}
+				chunks.updateSize();
+			}
+			sel.put(region, chunks);
+		}
+		return new Selection(sel, inverted);
+	}
+
 	public String toCSV() {
 		StringBuilder sb = new StringBuilder();
 		if (inverted) {
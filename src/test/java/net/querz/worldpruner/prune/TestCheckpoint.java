@@ -0,0 +1,75 @@
+package net.querz.worldpruner.prune;
+
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.querz.worldpruner.selection.Point;
+import net.querz.worldpruner.selection.Selection;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCheckpoint {
+
+	@TempDir
+	File dir;
+
+	private PruneData data(long inhabitedTime) {
+		return new PruneData(new PruneData.WorldDirectory(new File(dir, "region"), null, null), inhabitedTime, 0, new Selection(), false);
+	}
+
+	@Test
+	void resume() throws IOException {
+		Selection selection = new Selection();
+		selection.addChunk(new Point(3, 4));
+		Checkpoint checkpoint = new Checkpoint(dir, data(100));
+		checkpoint.start(selection);
+		checkpoint.complete(Checkpoint.REGION, LongList.of(1L, 2L));
+		checkpoint.complete(Checkpoint.POI, LongList.of(1L));
+		checkpoint.close();
+
+		Checkpoint.State state = new Checkpoint(dir, data(100)).load();
+		assertNotNull(state);
+		assertTrue(state.selection().isChunkSelected(3, 4));
+		assertFalse(state.selection().isChunkSelected(4, 4));
+		assertTrue(state.isCompleted(Checkpoint.REGION, 2L));
+		assertTrue(state.isCompleted(Checkpoint.POI, 1L));
+		assertFalse(state.isCompleted(Checkpoint.POI, 2L));
+		assertEquals(3, state.completedCount());
+	}
+
+	@Test
+	void differentSettings() throws IOException {
+		Checkpoint checkpoint = new Checkpoint(dir, data(100));
+		checkpoint.start(new Selection());
+		checkpoint.close();
+		assertNull(new Checkpoint(dir, data(200)).load());
+	}
+
+	@Test
+	void incompleteEntry() throws IOException {
+		Checkpoint checkpoint = new Checkpoint(dir, data(100));
+		checkpoint.start(null);
+		checkpoint.complete(Checkpoint.TILE, LongList.of(7L));
+		checkpoint.close();
+		try (FileOutputStream out = new FileOutputStream(new File(dir, Checkpoint.DIRECTORY_NAME + "/completed.log"), true)) {
+			out.write(new byte[]{Checkpoint.TILE, 0, 0});
+		}
+
+		checkpoint = new Checkpoint(dir, data(100));
+		Checkpoint.State state = checkpoint.load();
+		assertNotNull(state);
+		assertNull(state.selection());
+		assertEquals(1, state.completedCount());
+		checkpoint.resume();
+		checkpoint.complete(Checkpoint.TILE, LongList.of(8L));
+		checkpoint.close();
+		state = new Checkpoint(dir, data(100)).load();
+		assertTrue(state.isCompleted(Checkpoint.TILE, 7L));
+		assertTrue(state.isCompleted(Checkpoint.TILE, 8L));
+
+		new Checkpoint(dir, data(100)).delete();
+		assertFalse(new File(dir, Checkpoint.DIRECTORY_NAME).exists());
+	}
+}
@@ -0,0 +1,172 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.prune.structures.StructureData;
+import net.querz.worldpruner.prune.structures.StructureID;
+import net.querz.worldpruner.selection.Point;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestChunkScanner {
+
+	private static ChunkSummary scan(byte[] data, int compression) throws IOException {
+		ChunkInput input = new ChunkInput();
+		assertTrue(input.reset(ByteBuffer.wrap(data), compression));
+		return new ChunkScanner().scan(input, 3, 4, 42);
+	}
+
+	private static ChunkSummary scan(byte[] data) throws IOException {
+		return scan(data, ChunkInput.UNCOMPRESSED);
+	}
+
+	private static void name(DataOutputStream out, int type, String name) throws IOException {
+		out.writeByte(type);
+		out.writeUTF(name);
+	}
+
+	private static void boundingBox(DataOutputStream out, int... values) throws IOException {
+		name(out, 11, "BB");
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	// a structures compound with one start that has a single child and one reference
+	private static void structures(DataOutputStream out, String name, String starts) throws IOException {
+		name(out, 10, name);
+		name(out, 10, starts);
+		name(out, 10, "minecraft:village");
+		name(out, 8, "id");
+		out.writeUTF("minecraft:village");
+		boundingBox(out, 0, 1, 2, 3, 4, 5);
+		name(out, 9, "Children");
+		out.writeByte(10);
+		out.writeInt(1);
+		boundingBox(out, 6, 7, 8, 9, 10, 11);
+		out.writeByte(0); // end of child
+		out.writeByte(0); // end of start
+		name(out, 10, "minecraft:fortress");
+		boundingBox(out, 0, 0, 0, 1, 1, 1);
+		out.writeByte(0); // start without children
+		out.writeByte(0); // end of starts
+		name(out, 10, "References");
+		name(out, 12, "minecraft:village");
+		out.writeInt(1);
+		out.writeLong(new Point(1, 2).asLong());
+		out.writeByte(0); // end of references
+		out.writeByte(0); // end of structures
+	}
+
+	private static void assertStructures(ChunkSummary summary) {
+		assertEquals(1, summary.structures().size());
+		StructureData structure = summary.structures().get(0);
+		assertEquals(new StructureID(new Point(3, 4).asLong(), "minecraft:village"), structure.structureID());
+		assertEquals(2, structure.boundingBoxes().size());
+		assertEquals(new StructureData.BoundingBox(0, 1, 2, 3, 4, 5), structure.boundingBoxes().get(0));
+		assertEquals(new StructureData.BoundingBox(6, 7, 8, 9, 10, 11), structure.boundingBoxes().get(1));
+		assertEquals(1, summary.references().size());
+		assertEquals(new StructureID(new Point(1, 2).asLong(), "minecraft:village"), summary.references().get(0));
+	}
+
+	@Nested
+	class Scan {
+
+		private static byte[] modernChunk() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			name(out, 10, "");
+			name(out, 3, "DataVersion");
+			out.writeInt(3120);
+			name(out, 9, "sections");
+			out.writeByte(10);
+			out.writeInt(1);
+			name(out, 7, "data");
+			out.writeInt(100000);
+			out.write(new byte[100000]);
+			out.writeByte(0);
+			name(out, 4, "InhabitedTime");
+			out.writeLong(1234);
+			structures(out, "structures", "starts");
+			out.writeByte(0);
+			return bytes.toByteArray();
+		}
+
+		@Test
+		void compressed() throws IOException {
+			byte[] chunk = modernChunk();
+			ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+			try (OutputStream out = new DeflaterOutputStream(zlib)) {
+				out.write(chunk);
+			}
+			ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+			try (OutputStream out = new GZIPOutputStream(gzip)) {
+				out.write(chunk);
+			}
+			assertStructures(scan(zlib.toByteArray(), ChunkInput.ZLIB));
+			assertStructures(scan(gzip.toByteArray(), ChunkInput.GZIP));
+		}
+
+		@Test
+		void modern() throws IOException {
+			ChunkSummary summary = scan(modernChunk());
+			assertEquals(3, summary.x());
+			assertEquals(4, summary.z());
+			assertEquals(42, summary.timestamp());
+			assertEquals(1234, summary.inhabitedTime());
+			assertStructures(summary);
+		}
+
+		@Test
+		void legacy() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			name(out, 10, "");
+			name(out, 10, "Level");
+			structures(out, "Structures", "Starts");
+			name(out, 4, "InhabitedTime");
+			out.writeLong(99);
+			out.writeByte(0);
+			out.writeByte(0);
+
+			ChunkSummary summary = scan(bytes.toByteArray());
+			assertEquals(99, summary.inhabitedTime());
+			assertStructures(summary);
+		}
+
+		@Test
+		void stopsWhenDone() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			name(out, 10, "");
+			name(out, 4, "InhabitedTime");
+			out.writeLong(5);
+			structures(out, "structures", "starts");
+			// invalid data that would fail the scan if it was read
+			out.writeByte(99);
+
+			ChunkSummary summary = scan(bytes.toByteArray());
+			assertEquals(5, summary.inhabitedTime());
+			assertStructures(summary);
+		}
+
+		@Test
+		void missingInhabitedTime() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			name(out, 10, "");
+			name(out, 3, "InhabitedTime");
+			out.writeInt(5);
+			out.writeByte(0);
+
+			ChunkSummary summary = scan(bytes.toByteArray());
+			assertEquals(ChunkSummary.UNKNOWN_INHABITED_TIME, summary.inhabitedTime());
+			assertTrue(summary.structures().isEmpty());
+			assertTrue(summary.references().isEmpty());
+		}
+	}
+}
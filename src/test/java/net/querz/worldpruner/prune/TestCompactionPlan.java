@@ -0,0 +1,43 @@
+package net.querz.worldpruner.prune;
+
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCompactionPlan {
+
+	// offsets and sectors of the chunks with the index of their position in the array
+	private static ByteBuffer header(int... locations) {
+		ByteBuffer header = ByteBuffer.allocate(8192);
+		for (int i = 0; i < locations.length; i += 2) {
+			header.putInt(i / 2 * 4, locations[i] << 8 | locations[i + 1]);
+		}
+		return header;
+	}
+
+	@Test
+	void compact() {
+		CompactionPlan plan = CompactionPlan.create(header(10, 2, 2, 3, 5, 1, 20, 1), null);
+		assertTrue(plan.canCompactInPlace());
+		assertEquals(2 + 7, plan.sectors());
+		for (int run = 0; run < plan.runCount(); run++) {
+			assertTrue(plan.runTarget(run) <= plan.runSource(run));
+		}
+	}
+
+	@Test
+	void overlapping() {
+		// the second chunk starts inside the first, compacting in place would overwrite it before it is moved
+		CompactionPlan plan = CompactionPlan.create(header(4, 3, 5, 2, 10, 1), null);
+		assertFalse(plan.canCompactInPlace());
+		assertEquals(2 + 6, plan.sectors());
+
+		// the same chunk twice
+		assertFalse(CompactionPlan.create(header(4, 3, 4, 3), null).canCompactInPlace());
+	}
+
+	@Test
+	void intoHeader() {
+		assertFalse(CompactionPlan.create(header(1, 2, 10, 1), null).canCompactInPlace());
+	}
+}
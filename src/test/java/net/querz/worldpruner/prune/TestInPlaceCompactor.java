@@ -0,0 +1,189 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.cli.CLIErrorHandler;
+import net.querz.worldpruner.selection.ChunkSet;
+import net.querz.worldpruner.selection.Selection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestInPlaceCompactor {
+
+	@TempDir
+	File dir;
+
+	// index, offset and sectors of the chunks of the region. the kept chunks are moved like this:
+	// move 0: chunk 2 from 5 to 3, which overlaps its own source
+	// moves 1 and 2: chunks 4 and 5 as one run of 400 sectors from 9 to 6, split into 256 and 144 sectors
+	// moves 3 to 5: chunks 7, 8 and 9 to 406, 408 and 409 in a single batch
+	private static final int[][] CHUNKS = {
+			{0, 2, 1}, {1, 3, 2}, {2, 5, 3}, {3, 8, 1}, {4, 9, 200},
+			{5, 209, 200}, {6, 409, 50}, {7, 459, 2}, {8, 470, 1}, {9, 480, 5}
+	};
+	private static final int[] DELETED = {1, 3, 6};
+
+	private File region;
+	private File original;
+	private ChunkSet whitelist;
+
+	@BeforeEach
+	void setup() throws IOException {
+		File regionDir = new File(dir, "region");
+		Files.createDirectories(regionDir.toPath());
+		region = new File(regionDir, "r.0.0.mca");
+		original = new File(dir, "original.mca");
+
+		Random random = new Random(0);
+		ByteBuffer file = ByteBuffer.allocate(485 * 4096);
+		random.nextBytes(file.array());
+		ByteBuffer header = ByteBuffer.allocate(8192);
+		for (int[] chunk : CHUNKS) {
+			header.putInt(chunk[0] * 4, chunk[1] << 8 | chunk[2]);
+			header.putInt(4096 + chunk[0] * 4, random.nextInt());
+		}
+		file.put(0, header, 0, 8192);
+		Files.write(original.toPath(), file.array());
+		Files.copy(original.toPath(), region.toPath());
+
+		whitelist = new ChunkSet();
+		for (int[] chunk : CHUNKS) {
+			whitelist.set(chunk[0]);
+		}
+		for (int chunk : DELETED) {
+			whitelist.clear(chunk);
+		}
+	}
+
+	private Pruner pruner(boolean inPlace) {
+		PruneData.ExecutionOptions execution = PruneData.ExecutionOptions.builder().threads(1).compactThreads(1).ioLimit(1).inPlace(inPlace).build();
+		PruneData data = new PruneData(new PruneData.WorldDirectory(region.getParentFile(), null, null), 0, 0, new Selection(), false, false, execution);
+		return new Pruner(data, new CLIErrorHandler(false));
+	}
+
+	// the file that the copy path stages to replace the region
+	private byte[] compactedCopy() throws IOException {
+		File target = new File(region.getParentFile(), "r.1.0.mca");
+		Files.copy(original.toPath(), target.toPath());
+		assertFalse(pruner(false).deFragment(target, whitelist).error());
+		File[] staged = new File(dir, Staging.DIRECTORY_NAME).listFiles();
+		assertNotNull(staged);
+		assertEquals(1, staged.length);
+		byte[] compacted = Files.readAllBytes(staged[0].toPath());
+		new Staging(dir).cleanup();
+		Files.delete(target.toPath());
+		return compacted;
+	}
+
+	private static CompactionPlan plan(File file, ChunkSet whitelist) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(8192);
+			Pruner.readFully(channel, header, 0);
+			return CompactionPlan.create(header, whitelist);
+		}
+	}
+
+	@Test
+	void sameAsCopy() throws IOException {
+		byte[] expected = compactedCopy();
+		assertEquals(414 * 4096, expected.length);
+		assertFalse(pruner(true).deFragment(region, whitelist).error());
+		assertArrayEquals(expected, Files.readAllBytes(region.toPath()));
+		assertFalse(Files.exists(InPlaceCompactor.journalFile(region.toPath())));
+	}
+
+	private static final class Crash extends IOException {}
+
+	private static InPlaceCompactor.CrashPoint at(InPlaceCompactor.Stage stage, int move) {
+		return (s, m) -> {
+			if (s == stage && m == move) {
+				throw new Crash();
+			}
+		};
+	}
+
+	@Nested
+	class Recover {
+
+		// compacts the region until the crash point throws, then recovers it from its journal
+		private void crashAndRecover(InPlaceCompactor.CrashPoint crashPoint) throws IOException {
+			CompactionPlan plan = plan(region, whitelist);
+			assertTrue(plan.canCompactInPlace());
+			InPlaceCompactor compactor = new InPlaceCompactor(new Semaphore(1), new LongAdder(), crashPoint);
+			try (FileChannel channel = FileChannel.open(region.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				assertThrows(Crash.class, () -> compactor.compact(region.toPath(), channel, plan));
+			}
+			Path journal = InPlaceCompactor.journalFile(region.toPath());
+			assertTrue(Files.exists(journal));
+			assertTrue(InPlaceCompactor.isJournal(journal.toFile()));
+			new InPlaceCompactor(new Semaphore(1), new LongAdder()).recover(journal);
+			assertFalse(Files.exists(journal));
+		}
+
+		@Test
+		void journalWithoutMagic() throws IOException {
+			crashAndRecover(at(InPlaceCompactor.Stage.JOURNAL_WRITTEN, -1));
+			// the journal is discarded and the file was never touched
+			assertArrayEquals(Files.readAllBytes(original.toPath()), Files.readAllBytes(region.toPath()));
+		}
+
+		@Test
+		void partlyCommittedBatch() throws IOException {
+			byte[] expected = compactedCopy();
+			crashAndRecover(at(InPlaceCompactor.Stage.MOVED, 4));
+			assertArrayEquals(expected, Files.readAllBytes(region.toPath()));
+		}
+
+		@Test
+		void uncommittedMoveFromSlot() throws IOException {
+			byte[] expected = compactedCopy();
+			// the source of the move is already overwritten, so it can only be redone from the slot
+			crashAndRecover(at(InPlaceCompactor.Stage.MOVED, 1));
+			assertArrayEquals(expected, Files.readAllBytes(region.toPath()));
+		}
+
+		@Test
+		void tornSlot() throws IOException {
+			byte[] expected = compactedCopy();
+			Path journal = InPlaceCompactor.journalFile(region.toPath());
+			crashAndRecover((stage, move) -> {
+				if (stage == InPlaceCompactor.Stage.SLOT_WRITTEN && move == 1) {
+					// the slot is the last part of the journal, flip its last byte
+					try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+						ByteBuffer last = ByteBuffer.allocate(1);
+						Pruner.readFully(channel, last, channel.size() - 1);
+						last.put(0, (byte) ~last.get(0));
+						channel.write(last, channel.size() - 1);
+					}
+					throw new Crash();
+				}
+			});
+			assertArrayEquals(expected, Files.readAllBytes(region.toPath()));
+		}
+
+		@Test
+		void allMovesCommitted() throws IOException {
+			byte[] expected = compactedCopy();
+			crashAndRecover(at(InPlaceCompactor.Stage.COMMITTED, 6));
+			assertArrayEquals(expected, Files.readAllBytes(region.toPath()));
+		}
+
+		@Test
+		void journalNotDeleted() throws IOException {
+			byte[] expected = compactedCopy();
+			crashAndRecover(at(InPlaceCompactor.Stage.COMPACTED, 6));
+			assertArrayEquals(expected, Files.readAllBytes(region.toPath()));
+		}
+	}
+}
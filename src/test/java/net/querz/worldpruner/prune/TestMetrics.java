@@ -0,0 +1,51 @@
+package net.querz.worldpruner.prune;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMetrics {
+
+	@Nested
+	class Histogram {
+
+		@Test
+		void buckets() {
+			int previous = -1;
+			for (long v = 0; v < 1 << 20; v++) {
+				int bucket = Metrics.Histogram.bucket(v);
+				assertTrue(bucket == previous || bucket == previous + 1);
+				assertTrue(v <= Metrics.Histogram.bucketMax(bucket));
+				assertTrue(bucket == 0 || v > Metrics.Histogram.bucketMax(bucket - 1));
+				previous = bucket;
+			}
+			assertTrue(Metrics.Histogram.bucket(Long.MAX_VALUE) < 64 * 8);
+			assertEquals(Long.MAX_VALUE, Metrics.Histogram.bucketMax(Metrics.Histogram.bucket(Long.MAX_VALUE)));
+		}
+
+		@Test
+		void percentiles() {
+			Metrics.Histogram histogram = new Metrics.Histogram();
+			assertEquals(0, histogram.percentile(50));
+			for (int i = 1; i <= 1000; i++) {
+				histogram.record(i);
+			}
+			assertEquals(1000, histogram.percentile(100));
+			assertTrue(Math.abs(histogram.percentile(50) - 500) <= 500 / 8);
+			assertTrue(Math.abs(histogram.percentile(90) - 900) <= 900 / 8);
+			assertTrue(histogram.percentile(1) <= 10);
+		}
+	}
+
+	@Test
+	void escape() {
+		assertEquals("compact region", Metrics.escape("compact region"));
+		assertEquals("a\\\"b\\\\c\\n\\u0001", Metrics.escape("a\"b\\c\n\u0001"));
+
+		Metrics metrics = new Metrics();
+		Metrics.Phases phases = metrics.phases("my \"world\"/");
+		phases.phase("scan");
+		phases.phase(null);
+		assertTrue(metrics.toJson(true).contains("{\"name\": \"my \\\"world\\\"/scan\""));
+	}
+}
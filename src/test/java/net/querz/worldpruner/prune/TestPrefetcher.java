@@ -0,0 +1,88 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.selection.Point;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPrefetcher {
+
+	@TempDir
+	File dir;
+
+	private static final int FILES = 8;
+	private static final int SIZE = 300 * 1024;
+
+	private final long[] regions = new long[FILES];
+	private final long[] sizes = new long[FILES];
+	private final byte[][] contents = new byte[FILES][];
+
+	private WorkerPool workers(int prefetchMemory) throws IOException {
+		Random random = new Random(0);
+		for (int i = 0; i < FILES; i++) {
+			Point region = new Point(i, -i);
+			regions[i] = region.asLong();
+			contents[i] = new byte[SIZE];
+			random.nextBytes(contents[i]);
+			Files.write(Pruner.toFile(dir, region).toPath(), contents[i]);
+			sizes[i] = SIZE;
+		}
+		return new WorkerPool(PruneData.ExecutionOptions.builder().threads(1).compactThreads(1).ioLimit(1).prefetchMemory(prefetchMemory).build());
+	}
+
+	// polls until condition is true, failing after 10 seconds
+	private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+		long deadline = System.nanoTime() + 10_000_000_000L;
+		while (!condition.getAsBoolean()) {
+			if (System.nanoTime() > deadline) {
+				fail(message);
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	// waits until all memory of the budget is free again
+	private static void awaitBudget(WorkerPool workers) throws InterruptedException {
+		int budget = (int) (workers.prefetchBytes() >> 10);
+		await(() -> workers.prefetchBudget().availablePermits() == budget, "budget was not freed");
+	}
+
+	@Test
+	void prefetch() throws IOException, InterruptedException {
+		try (WorkerPool workers = workers(1)) {
+			Prefetcher prefetcher = new Prefetcher(dir, regions, sizes, workers);
+			prefetcher.start();
+			for (int i = 0; i < FILES; i++) {
+				// a file that is taken before it is read is not prefetched anymore
+				long region = regions[i];
+				await(() -> prefetcher.isPrefetched(region), "file " + i + " was not prefetched");
+				Prefetcher.Prefetched p = prefetcher.take(region);
+				assertNotNull(p);
+				assertEquals(ByteBuffer.wrap(contents[i]), p.data());
+				prefetcher.release(p);
+			}
+			prefetcher.close();
+			awaitBudget(workers);
+		}
+	}
+
+	@Test
+	void close() throws IOException, InterruptedException {
+		try (WorkerPool workers = workers(1)) {
+			Prefetcher prefetcher = new Prefetcher(dir, regions, sizes, workers);
+			prefetcher.start();
+			// the budget only fits 3 files, so the prefetch thread waits for files to be taken
+			await(() -> prefetcher.isPrefetched(regions[0]) && prefetcher.isPrefetched(regions[1]) && prefetcher.isPrefetched(regions[2]), "files were not prefetched");
+			assertEquals(1024 - 3 * 300, workers.prefetchBudget().availablePermits());
+			assertFalse(prefetcher.isPrefetched(regions[3]));
+			prefetcher.close();
+			awaitBudget(workers);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package net.querz.worldpruner.prune;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPruneData {
+
+	@Nested
+	class DiscoverDimensions {
+
+		@TempDir
+		File world;
+
+		private void dimension(String path) {
+			assertTrue(new File(world, path + "/region").mkdirs());
+		}
+
+		@Test
+		void vanilla() {
+			dimension(".");
+			dimension("DIM-1");
+			dimension("DIM1");
+			Map<String, PruneData.WorldDirectory> dimensions = PruneData.WorldDirectory.discoverDimensions(world);
+			assertEquals(List.of(PruneData.WorldDirectory.OVERWORLD, PruneData.WorldDirectory.THE_NETHER, PruneData.WorldDirectory.THE_END), List.copyOf(dimensions.keySet()));
+			assertEquals(new File(world, "DIM-1/region"), dimensions.get(PruneData.WorldDirectory.THE_NETHER).region());
+		}
+
+		@Test
+		void custom() {
+			dimension(".");
+			dimension("dimensions/mymod/mining");
+			dimension("dimensions/mymod/worlds/sky");
+			assertTrue(new File(world, "dimensions/mymod/empty").mkdirs());
+			Map<String, PruneData.WorldDirectory> dimensions = PruneData.WorldDirectory.discoverDimensions(world);
+			assertEquals(List.of(PruneData.WorldDirectory.OVERWORLD, "mymod:mining", "mymod:worlds/sky"), List.copyOf(dimensions.keySet()));
+			assertEquals(new File(world, "dimensions/mymod/worlds/sky/region"), dimensions.get("mymod:worlds/sky").region());
+		}
+
+		@Test
+		void missingRegion() {
+			assertTrue(new File(world, "DIM-1").mkdirs());
+			dimension("DIM1");
+			assertEquals(List.of(PruneData.WorldDirectory.THE_END), List.copyOf(PruneData.WorldDirectory.discoverDimensions(world).keySet()));
+		}
+	}
+}
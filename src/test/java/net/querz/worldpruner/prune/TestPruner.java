@@ -0,0 +1,233 @@
+package net.querz.worldpruner.prune;
+
+import net.querz.worldpruner.cli.CLIErrorHandler;
+import net.querz.worldpruner.selection.Point;
+import net.querz.worldpruner.selection.Selection;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.DeflaterOutputStream;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPruner {
+
+	@TempDir
+	File dir;
+
+	private static final long INHABITED_TIME = 500;
+
+	// writes 4x4 regions around 0|0 with all chunks. villages can start on a grid of 16x16 chunks at 4|4 within each
+	// cell, and have children that reach 12 chunks east and south, so they cross region borders. chunks reference the
+	// village of the grid cell that is closest to them.
+	private static void world(File world) throws IOException {
+		File regionDir = new File(world, "region");
+		Files.createDirectories(regionDir.toPath());
+		for (int regionX = -2; regionX < 2; regionX++) {
+			for (int regionZ = -2; regionZ < 2; regionZ++) {
+				Point region = new Point(regionX, regionZ);
+				Random random = new Random(region.asLong());
+				File file = new File(regionDir, String.format("r.%d.%d.mca", regionX, regionZ));
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+					ByteBuffer header = ByteBuffer.allocate(8192);
+					int sector = 2;
+					for (int i = 0; i < 1024; i++) {
+						Point chunk = new Point((short) i).add(region.regionToChunk());
+						ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+							chunk(out, chunk.x(), chunk.z(), random);
+						}
+						byte[] compressed = bytes.toByteArray();
+						int sectors = (compressed.length + 5 + 4095) / 4096;
+						ByteBuffer data = ByteBuffer.allocate(sectors * 4096);
+						data.putInt(compressed.length + 1).put((byte) ChunkInput.ZLIB).put(compressed).clear();
+						channel.write(data, sector * 4096L);
+						header.putInt(i * 4, sector << 8 | sectors);
+						header.putInt(4096 + i * 4, 1);
+						sector += sectors;
+					}
+					channel.write(header, 0);
+				}
+			}
+		}
+	}
+
+	private static boolean hasStart(int gridX, int gridZ) {
+		return new Random(gridX * 341873128712L ^ gridZ * 132897987541L).nextInt(3) != 0;
+	}
+
+	private static void chunk(DataOutputStream out, int x, int z, Random random) throws IOException {
+		name(out, 10, "");
+		name(out, 4, "InhabitedTime");
+		out.writeLong(random.nextInt(100) < 3 ? INHABITED_TIME * 2 : 0);
+		name(out, 10, "structures");
+		name(out, 10, "starts");
+		if ((x & 15) == 4 && (z & 15) == 4 && hasStart(x >> 4, z >> 4)) {
+			name(out, 10, "minecraft:village");
+			name(out, 8, "id");
+			out.writeUTF("minecraft:village");
+			boundingBox(out, x * 16 - 32, 60, z * 16 - 32, x * 16 + 47, 90, z * 16 + 47);
+			name(out, 9, "Children");
+			out.writeByte(10);
+			out.writeInt(2);
+			boundingBox(out, x * 16, 60, z * 16, x * 16 + 12 * 16 + 15, 70, z * 16 + 15);
+			out.writeByte(0);
+			boundingBox(out, x * 16, 60, z * 16, x * 16 + 15, 70, z * 16 + 12 * 16 + 15);
+			out.writeByte(0);
+			out.writeByte(0);
+		}
+		out.writeByte(0);
+		name(out, 10, "References");
+		int gridX = (x + 4) >> 4;
+		int gridZ = (z + 4) >> 4;
+		if (random.nextInt(8) == 0 && hasStart(gridX, gridZ)) {
+			name(out, 12, "minecraft:village");
+			out.writeInt(1);
+			out.writeLong(new Point(gridX * 16 + 4, gridZ * 16 + 4).asLong());
+		}
+		out.writeByte(0);
+		out.writeByte(0);
+		out.writeByte(0);
+	}
+
+	private static void boundingBox(DataOutputStream out, int... values) throws IOException {
+		name(out, 11, "BB");
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	private static void name(DataOutputStream out, int type, String name) throws IOException {
+		out.writeByte(type);
+		out.writeUTF(name);
+	}
+
+	// prunes a new world and returns the contents of all region files that are left
+	private Map<String, ByteBuffer> prune(String name, int radius, Selection whitelist, boolean whitelistOnly, PruneData.ExecutionOptions execution) throws IOException {
+		File world = new File(dir, name);
+		world(world);
+		CLIErrorHandler errorHandler = new CLIErrorHandler(false);
+		PruneData data = new PruneData(PruneData.WorldDirectory.parseWorldDirectory(world), INHABITED_TIME, radius, whitelist, false, whitelistOnly, execution);
+		new Pruner(data, errorHandler).prune(new NoProgress());
+		assertTrue(errorHandler.wasSuccessful());
+
+		Map<String, ByteBuffer> files = new TreeMap<>();
+		File[] regions = new File(world, "region").listFiles();
+		assertNotNull(regions);
+		for (File region : regions) {
+			files.put(region.getName(), ByteBuffer.wrap(Files.readAllBytes(region.toPath())));
+		}
+		return files;
+	}
+
+	private static PruneData.ExecutionOptions.Builder options() {
+		return PruneData.ExecutionOptions.builder().threads(2).compactThreads(2).ioLimit(2);
+	}
+
+	// the number of chunks that are left in a region file
+	private static int chunks(ByteBuffer file) {
+		int chunks = 0;
+		for (int i = 0; i < 1024; i++) {
+			if (file.getInt(i * 4) != 0) {
+				chunks++;
+			}
+		}
+		return chunks;
+	}
+
+	private static final class NoProgress implements Progress {
+
+		@Override
+		public void setMaximum(int max) {}
+
+		@Override
+		public void setMinimum(int min) {}
+
+		@Override
+		public void increment(int inc) {}
+
+		@Override
+		public void setValue(int value) {}
+
+		@Override
+		public void setIndeterminate(boolean indeterminate) {}
+
+		@Override
+		public void done() {}
+
+		@Override
+		public void setMessage(String msg) {}
+	}
+
+	@Nested
+	class Pipeline {
+
+		// returns the files that are left
+		private Map<String, ByteBuffer> assertSameAsNormal(int radius, Selection whitelist, boolean whitelistOnly) throws IOException {
+			Map<String, ByteBuffer> normal = prune("normal", radius, whitelist, whitelistOnly, options().build());
+			Map<String, ByteBuffer> pipelined = prune("pipeline", radius, whitelist, whitelistOnly, options().pipeline(true).build());
+			assertEquals(normal.keySet(), pipelined.keySet());
+			assertEquals(normal, pipelined);
+			int kept = normal.values().stream().mapToInt(TestPruner::chunks).sum();
+			assertTrue(kept > 0 && kept < 16 * 1024);
+			return normal;
+		}
+
+		@Test
+		void sameAsNormal() throws IOException {
+			assertSameAsNormal(0, new Selection(), false);
+		}
+
+		@Test
+		void radius() throws IOException {
+			assertSameAsNormal(3, new Selection(), false);
+		}
+
+		@Test
+		void whitelistOnly() throws IOException {
+			// the whitelisted chunks reference villages that start in r.1.0, which is not scanned
+			Selection whitelist = new Selection();
+			whitelist.addRect(28, 0, 31, 31);
+			Map<String, ByteBuffer> files = assertSameAsNormal(0, whitelist, true);
+			assertTrue(files.containsKey("r.1.0.mca"));
+		}
+	}
+
+	@Nested
+	class Tiles {
+
+		// the world is 4x4 regions, so tiles of 1 and 2 regions split it into 16 and 4 tiles
+		private void assertSameAsUntiled(int radius) throws IOException {
+			Map<String, ByteBuffer> untiled = prune("untiled", radius, new Selection(), false, options().build());
+			for (int tileSize : new int[]{1, 2}) {
+				Map<String, ByteBuffer> tiled = prune("tiled" + tileSize, radius, new Selection(), false, options().tileSize(tileSize).build());
+				assertEquals(untiled.keySet(), tiled.keySet(), "tile size " + tileSize);
+				assertEquals(untiled, tiled, "tile size " + tileSize);
+			}
+			int kept = untiled.values().stream().mapToInt(TestPruner::chunks).sum();
+			assertTrue(kept > 0 && kept < 16 * 1024);
+		}
+
+		@Test
+		void sameAsUntiled() throws IOException {
+			assertSameAsUntiled(0);
+		}
+
+		@Test
+		void radius() throws IOException {
+			// kept chunks next to the border of a tile keep chunks in the neighbouring tile
+			assertSameAsUntiled(3);
+		}
+	}
+}
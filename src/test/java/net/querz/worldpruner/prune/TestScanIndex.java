@@ -0,0 +1,46 @@
+package net.querz.worldpruner.prune;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.querz.worldpruner.selection.Point;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestScanIndex {
+
+	@TempDir
+	File dir;
+
+	@Test
+	void saveAndLoad() throws IOException {
+		ScanIndex index = new ScanIndex(dir);
+		Point region = new Point(-1, 2);
+		ChunkSummary[] chunks = new ChunkSummary[1024];
+		chunks[5] = new ChunkSummary(-27, 64, 7, 1000, List.of(), List.of());
+		index.save(region, 123, 456, chunks);
+
+		ScanIndex.RegionIndex loaded = index.load(region);
+		assertNotNull(loaded);
+		assertEquals(123, loaded.lastModified());
+		assertEquals(456, loaded.length());
+		assertEquals(chunks[5], loaded.chunks()[5]);
+		assertNull(loaded.chunks()[6]);
+		assertNull(index.load(new Point(0, 0)));
+	}
+
+	@Test
+	void removeStale() throws IOException {
+		ScanIndex index = new ScanIndex(dir);
+		ChunkSummary[] chunks = new ChunkSummary[1024];
+		index.save(new Point(0, 0), 1, 1, chunks);
+		index.save(new Point(-3, 4), 1, 1, chunks);
+
+		index.removeStale(LongOpenHashSet.of(new Point(-3, 4).asLong()));
+		assertNull(index.load(new Point(0, 0)));
+		assertNotNull(index.load(new Point(-3, 4)));
+		assertEquals(1, new File(dir, ScanIndex.DIRECTORY_NAME).list().length);
+	}
+}
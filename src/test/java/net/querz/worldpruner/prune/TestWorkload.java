@@ -0,0 +1,88 @@
+package net.querz.worldpruner.prune;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.querz.worldpruner.selection.Point;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestWorkload {
+
+	@TempDir
+	File dir;
+
+	@Test
+	void largestFirst() {
+		Workload work = new Workload(new long[]{5, 3, 4, 1, 2}, new long[]{8192, 0, 4 << 20, 4 << 20, 100 << 10});
+		assertEquals(5, work.count());
+		long[] expected = {1, 4, 2, 5, 3};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], work.region(i));
+		}
+		assertEquals(4 << 20, work.size(0));
+		assertEquals(4096, work.weight(0));
+		assertEquals(100, work.weight(2));
+		assertEquals(8, work.weight(3));
+		// missing files still count
+		assertEquals(1, work.weight(4));
+		assertEquals(4096 + 4096 + 100 + 8 + 1, work.totalWeight());
+	}
+
+	@Test
+	void largeTotal() {
+		long[] regions = new long[1000];
+		long[] sizes = new long[1000];
+		for (int i = 0; i < regions.length; i++) {
+			regions[i] = i;
+			sizes[i] = 1L << 40;
+		}
+		Workload work = new Workload(regions, sizes);
+		assertTrue(work.totalWeight() > 0);
+		assertEquals(work.weight(0) * 1000L, work.totalWeight());
+	}
+
+	@Test
+	void diskOrder() {
+		Workload work = new Workload(new long[]{5, 3, 4, 1}, new long[]{8192, 4 << 20, 0, 8192}, new long[]{30, 10, 0, 20});
+		long[] expected = {4, 3, 1, 5};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], work.region(i));
+			assertEquals(0, work.priority(i));
+		}
+		assertEquals(4 << 20, work.size(1));
+
+		// without inodes the order is kept
+		work = new Workload(new long[]{5, 3, 4, 1}, new long[]{8192, 4 << 20, 0, 8192}, null);
+		expected = new long[]{5, 3, 4, 1};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], work.region(i));
+		}
+	}
+
+	@Test
+	void diskOrderOfDirectory() throws IOException {
+		LongOpenHashSet regions = new LongOpenHashSet();
+		for (int i = 0; i < 20; i++) {
+			Point region = new Point(i - 10, i % 3);
+			Files.write(Pruner.toFile(dir, region).toPath(), new byte[i * 100]);
+			regions.add(region.asLong());
+		}
+		// regions without a file are still processed
+		regions.add(new Point(100, 100).asLong());
+		Files.write(new File(dir, "r.200.200.mca").toPath(), new byte[1]);
+
+		Workload work = Workload.of(regions, dir, PruneData.IoOrder.DISK);
+		assertEquals(regions.size(), work.count());
+		LongOpenHashSet seen = new LongOpenHashSet();
+		for (int i = 0; i < work.count(); i++) {
+			assertTrue(regions.contains(work.region(i)));
+			assertTrue(seen.add(work.region(i)));
+			assertEquals(Pruner.toFile(dir, new Point(work.region(i))).length(), work.size(i));
+		}
+		// regions without a file are processed last
+		assertEquals(new Point(100, 100).asLong(), work.region(work.count() - 1));
+	}
+}
@@ -0,0 +1,205 @@
+package net.querz.worldpruner.prune.structures;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.querz.worldpruner.cli.CLIErrorHandler;
+import net.querz.worldpruner.prune.ChunkSummary;
+import net.querz.worldpruner.prune.PruneData;
+import net.querz.worldpruner.prune.Pruner;
+import net.querz.worldpruner.selection.Point;
+import net.querz.worldpruner.selection.Selection;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestStructureManager {
+
+	@TempDir
+	File dir;
+
+	private StructureManager manager() {
+		File region = new File(dir, "region");
+		PruneData data = new PruneData(new PruneData.WorldDirectory(region, null, null), 100, 0, new Selection(), false);
+		return new StructureManager(new Pruner(data, new CLIErrorHandler(false)), new CLIErrorHandler(false));
+	}
+
+	private static StructureData structure(int x, int z, String id, StructureData.BoundingBox... boundingBoxes) {
+		return new StructureData(new StructureID(new Point(x, z).asLong(), id), List.of(boundingBoxes));
+	}
+
+	private static ChunkSummary start(int x, int z, long inhabitedTime, StructureData... structures) {
+		return new ChunkSummary(x, z, 0, inhabitedTime, List.of(structures), List.of());
+	}
+
+	private static ChunkSummary reference(int x, int z, int startX, int startZ, String id) {
+		return new ChunkSummary(x, z, 0, 1000, List.of(), List.of(new StructureID(new Point(startX, startZ).asLong(), id)));
+	}
+
+	private static LongOpenHashSet chunksInside(StructureData.BoundingBox... boundingBoxes) {
+		LongOpenHashSet chunks = new LongOpenHashSet();
+		for (StructureData.BoundingBox boundingBox : boundingBoxes) {
+			chunks.addAll(boundingBox.getChunksInside());
+		}
+		return chunks;
+	}
+
+	private static void assertSelected(LongOpenHashSet expected, Selection actual) {
+		assertEquals(expected.size(), actual.getStats().totalSelectedChunks());
+		for (long chunk : expected) {
+			Point p = new Point(chunk);
+			assertTrue(actual.isChunkSelected(p.x(), p.z()), "expected chunk " + p + " to be selected");
+		}
+	}
+
+	@Nested
+	class Resolve {
+
+		private final StructureData.BoundingBox village = new StructureData.BoundingBox(-40, 0, 15, 16, 10, 200);
+		private final StructureData.BoundingBox house = new StructureData.BoundingBox(-1, 0, -1, 0, 10, 0);
+
+		@Test
+		void startBeforeReference() {
+			StructureManager manager = manager();
+			manager.checkChunk(start(-2, 3, 0, structure(-2, 3, "minecraft:village", village, house)));
+			manager.checkChunk(reference(10, 10, -2, 3, "minecraft:village"));
+			assertSelected(chunksInside(village, house), manager.calculateChunksToKeep());
+		}
+
+		@Test
+		void referenceBeforeStart() {
+			StructureManager manager = manager();
+			manager.checkChunk(reference(10, 10, -2, 3, "minecraft:village"));
+			manager.checkChunk(start(-2, 3, 0, structure(-2, 3, "minecraft:village", village, house)));
+			assertSelected(chunksInside(village, house), manager.calculateChunksToKeep());
+		}
+
+		@Test
+		void keptStart() {
+			StructureManager manager = manager();
+			manager.checkChunk(start(-2, 3, 1000, structure(-2, 3, "minecraft:village", village)));
+			assertSelected(chunksInside(village), manager.calculateChunksToKeep());
+		}
+
+		@Test
+		void unreferenced() {
+			StructureManager manager = manager();
+			manager.checkChunk(start(-2, 3, 0, structure(-2, 3, "minecraft:village", village)));
+			// a reference to another type or from a chunk that is not kept
+			manager.checkChunk(reference(10, 10, -2, 3, "minecraft:mineshaft"));
+			manager.checkChunk(new ChunkSummary(0, 0, 0, 0, List.of(), List.of(new StructureID(new Point(-2, 3).asLong(), "minecraft:village"))));
+			assertSelected(new LongOpenHashSet(), manager.calculateChunksToKeep());
+		}
+
+		@Test
+		void missingStarts() {
+			StructureManager manager = manager();
+			manager.checkChunk(reference(10, 10, -2, 3, "minecraft:village"));
+			manager.checkChunk(reference(10, 10, 5, 5, "minecraft:village"));
+			LongOpenHashSet expected = new LongOpenHashSet();
+			expected.add(new Point(-2, 3).asLong());
+			expected.add(new Point(5, 5).asLong());
+			assertEquals(expected, manager.getMissingStarts());
+
+			manager.addStarts(start(-2, 3, 0, structure(-2, 3, "minecraft:village", house)));
+			assertEquals(LongOpenHashSet.of(new Point(5, 5).asLong()), manager.getMissingStarts());
+			assertSelected(chunksInside(house), manager.calculateChunksToKeep());
+		}
+
+		@Test
+		void partial() {
+			StructureManager manager = manager();
+			manager.checkChunk(start(-2000, 3, 0, structure(-2000, 3, "minecraft:village", house)));
+			manager.checkChunk(reference(10, 10, -2000, 3, "minecraft:village"));
+			manager.checkChunk(reference(10, 10, 7, 7, "minecraft:village"));
+			LongOpenHashSet expected = chunksInside(house);
+			expected.add(new Point(-2000, 3).asLong());
+			assertSelected(expected, manager.calculateChunksToKeep(true));
+		}
+
+		@Test
+		void addResolvedChunks() {
+			StructureManager manager = manager();
+			Selection selection = new Selection();
+			manager.checkChunk(start(-2, 3, 0, structure(-2, 3, "minecraft:village", village)));
+			manager.addResolvedChunks(selection);
+			assertSelected(new LongOpenHashSet(), selection);
+
+			manager.checkChunk(reference(10, 10, -2, 3, "minecraft:village"));
+			manager.addResolvedChunks(selection);
+			LongOpenHashSet expected = chunksInside(village);
+			expected.add(new Point(-2, 3).asLong());
+			assertSelected(expected, selection);
+
+			// only structures that were resolved since the last call are added
+			Selection next = new Selection();
+			manager.checkChunk(reference(0, 0, 40, 40, "minecraft:village"));
+			manager.addStarts(start(40, 40, 0, structure(40, 40, "minecraft:village", house)));
+			manager.addResolvedChunks(next);
+			expected = chunksInside(house);
+			expected.add(new Point(40, 40).asLong());
+			assertSelected(expected, next);
+		}
+	}
+
+	@Nested
+	class Merge {
+
+		@Test
+		void differentTypes() {
+			StructureData.BoundingBox fortress = new StructureData.BoundingBox(100, 0, 100, 180, 50, 180);
+			StructureData.BoundingBox mineshaft = new StructureData.BoundingBox(-500, 0, -500, -400, 50, -450);
+
+			StructureManager a = manager();
+			a.checkChunk(start(6, 6, 0, structure(6, 6, "minecraft:fortress", fortress)));
+			a.checkChunk(reference(0, 0, -30, -30, "minecraft:mineshaft"));
+
+			// b interns the types in a different order
+			StructureManager b = manager();
+			b.checkChunk(start(-30, -30, 0, structure(-30, -30, "minecraft:mineshaft", mineshaft)));
+			b.checkChunk(reference(1, 1, 6, 6, "minecraft:fortress"));
+
+			StructureManager merged = manager();
+			merged.merge(a);
+			merged.merge(b);
+			assertSelected(chunksInside(fortress, mineshaft), merged.calculateChunksToKeep());
+		}
+
+		@Test
+		void resolved() {
+			StructureData.BoundingBox fortress = new StructureData.BoundingBox(100, 0, 100, 180, 50, 180);
+			StructureManager a = manager();
+			a.checkChunk(start(6, 6, 1000, structure(6, 6, "minecraft:fortress", fortress)));
+			StructureManager merged = manager();
+			merged.merge(a);
+			merged.merge(a);
+			assertSelected(chunksInside(fortress), merged.calculateChunksToKeep());
+			assertSelected(chunksInside(fortress), merged.calculateChunksToKeep(true));
+		}
+
+		@Test
+		void order() {
+			StructureData.BoundingBox fortress = new StructureData.BoundingBox(100, 0, 100, 180, 50, 180);
+			// a only has a reference, b has the start and a reference
+			StructureManager a = manager();
+			a.checkChunk(reference(0, 0, 6, 6, "minecraft:fortress"));
+			StructureManager b = manager();
+			b.checkChunk(start(6, 6, 0, structure(6, 6, "minecraft:fortress", fortress)));
+			b.checkChunk(reference(7, 7, 6, 6, "minecraft:fortress"));
+
+			StructureManager ab = manager();
+			ab.merge(a);
+			ab.merge(b);
+			StructureManager ba = manager();
+			ba.merge(b);
+			ba.merge(a);
+			for (StructureManager merged : List.of(ab, ba)) {
+				assertEquals(1, merged.getKeptCount());
+				assertEquals(0, merged.getMissingCount());
+				assertEquals(new LongOpenHashSet(), merged.getMissingStarts());
+				assertSelected(chunksInside(fortress), merged.calculateChunksToKeep());
+			}
+		}
+	}
+}
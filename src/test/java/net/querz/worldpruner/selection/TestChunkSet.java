@@ -0,0 +1,130 @@
+package net.querz.worldpruner.selection;
+
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import it.unimi.dsi.fastutil.shorts.ShortIterator;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestChunkSet {
+
+	static ChunkSet of(int... indices) {
+		ChunkSet set = new ChunkSet();
+		for (int index : indices) {
+			set.set(index);
+		}
+		return set;
+	}
+
+	@Nested
+	class Operations {
+
+		@Test
+		void or() {
+			ChunkSet a = of(0, 63, 64);
+			a.or(of(64, 1023));
+			assertEquals(4, a.size());
+			assertTrue(a.get(0) && a.get(63) && a.get(64) && a.get(1023));
+		}
+
+		@Test
+		void and() {
+			ChunkSet a = of(0, 63, 64);
+			a.and(of(63, 64, 1023));
+			assertEquals(2, a.size());
+			assertTrue(a.get(63) && a.get(64));
+			assertFalse(a.get(0));
+		}
+
+		@Test
+		void andNot() {
+			ChunkSet a = of(0, 63, 64);
+			a.andNot(of(63, 1023));
+			assertEquals(2, a.size());
+			assertTrue(a.get(0) && a.get(64));
+			assertFalse(a.get(63));
+		}
+
+		@Test
+		void not() {
+			ChunkSet a = of(5);
+			a.not();
+			assertEquals(1023, a.size());
+			assertFalse(a.get(5));
+			a.not();
+			assertEquals(1, a.size());
+			assertTrue(a.get(5));
+			a.clear();
+			a.not();
+			assertTrue(a.isFull());
+		}
+
+		@Test
+		void rows() {
+			ChunkSet a = of(32 * 3 + 1);
+			a.setRow(3, 0, 4);
+			a.setRow(4, 31, 31);
+			assertEquals(6, a.size());
+			assertEquals(0b11111, a.getRow(3));
+			assertEquals(1 << 31, a.getRow(4));
+			assertTrue(a.get(32 * 4 + 31));
+			a.setRow(5, 0, 31);
+			assertEquals(-1, a.getRow(5));
+			assertEquals(38, a.size());
+		}
+
+		@Test
+		void rects() {
+			ChunkSet a = new ChunkSet();
+			a.setRect(2, 3, 5, 30);
+			assertEquals(4 * 28, a.size());
+			assertTrue(a.get(32 * 30 + 5));
+			assertFalse(a.get(32 * 31 + 5));
+			a.clearRect(0, 0, 3, 31);
+			assertEquals(2 * 28, a.size());
+			assertEquals(0b110000, a.getRow(10));
+			a.clearRow(10, 5, 31);
+			assertEquals(0b10000, a.getRow(10));
+			assertEquals(2 * 28 - 1, a.size());
+		}
+
+		@Test
+		void removeIf() {
+			ChunkSet a = of(1, 2, 3, 700);
+			a.removeIf(i -> i % 2 == 0);
+			assertEquals(2, a.size());
+			assertTrue(a.get(1) && a.get(3));
+		}
+
+		@Test
+		void immutable() {
+			ChunkSet a = of(1).immutable();
+			assertThrows(UnsupportedOperationException.class, () -> a.or(of(2)));
+			assertThrows(UnsupportedOperationException.class, a::not);
+		}
+	}
+
+	@Nested
+	class Iteration {
+
+		@Test
+		void iterator() {
+			ShortIterator it = of(0, 63, 64, 1023).iterator();
+			// hasNext can be called multiple times without skipping chunks
+			assertTrue(it.hasNext());
+			assertTrue(it.hasNext());
+			assertEquals(0, it.nextShort());
+			assertEquals(63, it.nextShort());
+			assertEquals(64, it.nextShort());
+			assertEquals(1023, it.nextShort());
+			assertFalse(it.hasNext());
+		}
+
+		@Test
+		void forEach() {
+			ShortArrayList list = new ShortArrayList();
+			of(1023, 512, 7).forEach((short i) -> list.add(i));
+			assertEquals(ShortArrayList.of((short) 7, (short) 512, (short) 1023), list);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package net.querz.worldpruner.selection;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestDilation {
+
+	// selects the chunks around a chunk by testing every chunk in the surrounding square
+	static void applyRadius(Point chunk, int radius, Selection selection) {
+		for (int x = chunk.x() - radius; x <= chunk.x() + radius; x++) {
+			for (int z = chunk.z() - radius; z <= chunk.z() + radius; z++) {
+				int h = x - chunk.x();
+				int v = z - chunk.z();
+				if (h * h + v * v <= radius * radius) {
+					selection.addChunk(new Point(x, z));
+				}
+			}
+		}
+	}
+
+	static void assertSameChunks(Selection expected, Selection actual, int min, int max) {
+		for (int x = min; x <= max; x++) {
+			for (int z = min; z <= max; z++) {
+				assertEquals(expected.isChunkSelected(x, z), actual.isChunkSelected(x, z), "chunk " + x + " " + z);
+			}
+		}
+	}
+
+	@Nested
+	class Dilate {
+
+		@Test
+		void halfWidths() {
+			assertArrayEquals(new int[]{0}, Dilation.halfWidths(0));
+			assertArrayEquals(new int[]{1, 0}, Dilation.halfWidths(1));
+			assertArrayEquals(new int[]{5, 4, 4, 4, 3, 0}, Dilation.halfWidths(5));
+		}
+
+		@Test
+		void radiusZero() {
+			Selection seeds = new Selection();
+			seeds.addChunk(new Point(-1, 40));
+			Selection result = Dilation.dilate(seeds, 0);
+			assertTrue(result.isChunkSelected(-1, 40));
+			assertEquals(1, result.getStats().totalSelectedChunks());
+		}
+
+		@Test
+		void sameAsPerChunkRadius() {
+			Random random = new Random(42);
+			for (int radius : new int[]{1, 3, 17, 40}) {
+				Selection seeds = new Selection();
+				Selection expected = new Selection();
+				for (int i = 0; i < 30; i++) {
+					Point chunk = new Point(random.nextInt(100) - 50, random.nextInt(100) - 50);
+					seeds.addChunk(chunk);
+					applyRadius(chunk, radius, expected);
+				}
+				assertSameChunks(expected, Dilation.dilate(seeds, radius), -100, 100);
+			}
+		}
+
+		@Test
+		void fullRegion() {
+			Selection seeds = new Selection();
+			seeds.addRegion(new Point(0, 0).asLong());
+			Selection result = Dilation.dilate(seeds, 2);
+			assertTrue(result.isRegionSelected(new Point(0, 0).asLong()));
+			assertTrue(result.isChunkSelected(-2, 15));
+			assertTrue(result.isChunkSelected(33, 31));
+			assertFalse(result.isChunkSelected(33, 33));
+			assertFalse(result.isChunkSelected(-2, -2));
+			assertFalse(result.isChunkSelected(-3, 15));
+		}
+
+		@Test
+		void inverted() {
+			Selection seeds = new Selection();
+			seeds.inverted = true;
+			assertThrows(IllegalArgumentException.class, () -> Dilation.dilate(seeds, 1));
+		}
+	}
+}
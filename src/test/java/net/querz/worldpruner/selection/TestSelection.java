@@ -3,6 +3,7 @@ package net.querz.worldpruner.selection;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import java.io.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class TestSelection {
@@ -128,6 +129,47 @@ public class TestSelection {
 		}
 	}
 
+	@Nested
+	class AddRect {
+
+		@Test
+		void noInversion() {
+			Selection sel = new Selection();
+			sel.addRect(-40, 20, 70, 40);
+			for (int x = -64; x < 96; x++) {
+				for (int z = 0; z < 64; z++) {
+					assertEquals(x >= -40 && x <= 70 && z >= 20 && z <= 40, sel.isChunkSelected(x, z), "chunk " + x + "|" + z);
+				}
+			}
+			assertEquals(111 * 21, sel.getStats().totalSelectedChunks());
+		}
+
+		@Test
+		void noInversionFullRegion() {
+			Selection sel = new Selection();
+			sel.addChunk(new Point(3, 3));
+			sel.addRect(-1, 0, 32, 31);
+			assertNull(sel.selection.get(new Point(0, 0).asLong()));
+			assertEquals(32, sel.selection.get(new Point(-1, 0).asLong()).size());
+			assertEquals(32, sel.selection.get(new Point(1, 0).asLong()).size());
+		}
+
+		@Test
+		void inversion() {
+			Long2ObjectOpenHashMap<ChunkSet> map = new Long2ObjectOpenHashMap<>();
+			map.put(new Point(0, 0).asLong(), null);
+			Selection sel = new Selection(map, true);
+			sel.addRect(30, 30, 33, 33);
+			assertEquals(1020, sel.selection.get(new Point(0, 0).asLong()).size());
+			assertTrue(sel.isChunkSelected(30, 31));
+			assertFalse(sel.isChunkSelected(29, 31));
+			assertTrue(sel.isChunkSelected(33, 33));
+
+			sel.addRect(0, 0, 31, 31);
+			assertTrue(sel.selection.isEmpty());
+		}
+	}
+
 	@Nested
 	class Merge {
 
@@ -418,6 +460,76 @@ public class TestSelection {
 
 	}
 
+	@Nested
+	class Copy {
+
+		@Test
+		void independentOfOriginal() {
+			Selection a = new Selection();
+			a.addChunk(new Point(0, 0));
+			a.selection.put(new Point(1, 0).asLong(), null);
+			Selection b = a.copy();
+			b.addChunk(new Point(0, 1));
+
+			assertTrue(b.isChunkSelected(0, 0));
+			assertTrue(b.isChunkSelected(0, 1));
+			assertFalse(a.isChunkSelected(0, 1));
+			assertAllChunksInRegionSelected(b, 1, 0);
+		}
+
+		@Test
+		void keepsInversion() {
+			Selection a = new Selection();
+			a.addChunk(new Point(0, 0));
+			a.inverted = true;
+			Selection b = a.copy();
+
+			assertTrue(b.inverted);
+			assertFalse(b.isChunkSelected(0, 0));
+			assertTrue(b.isChunkSelected(0, 1));
+		}
+	}
+
+	@Nested
+	class Write {
+
+		private Selection roundTrip(Selection sel) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			sel.write(new DataOutputStream(bytes));
+			return Selection.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		}
+
+		@Test
+		void noInversion() throws IOException {
+			Selection sel = new Selection();
+			sel.addRegion(new Point(-1, 2).asLong());
+			sel.addRect(5, -40, 40, -3);
+			Selection read = roundTrip(sel);
+			assertFalse(read.inverted);
+			assertEquals(sel.getStats(), read.getStats());
+			assertAllChunksInRegionSelected(read, -1, 2);
+			for (int x = 0; x < 64; x++) {
+				for (int z = -64; z < 0; z++) {
+					assertEquals(sel.isChunkSelected(x, z), read.isChunkSelected(x, z));
+				}
+			}
+		}
+
+		@Test
+		void inversion() throws IOException {
+			Long2ObjectOpenHashMap<ChunkSet> map = new Long2ObjectOpenHashMap<>();
+			map.put(new Point(0, 0).asLong(), null);
+			map.put(new Point(1, 0).asLong(), new ChunkSet());
+			map.get(new Point(1, 0).asLong()).set(5);
+			Selection read = roundTrip(new Selection(map, true));
+			assertTrue(read.inverted);
+			assertNoChunkInRegionSelected(read, 0, 0);
+			assertFalse(read.isChunkSelected(37, 0));
+			assertTrue(read.isChunkSelected(36, 0));
+			assertAllChunksInRegionSelected(read, 2, 0);
+		}
+	}
+
 	static void assertAllChunksInRegionSelected(Selection s, int x, int z) {
 		Point zero = new Point(x, z).regionToChunk();
 		for (int cx = zero.x(); cx < zero.x() + 32; cx++) {